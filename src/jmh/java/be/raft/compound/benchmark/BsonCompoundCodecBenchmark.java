@@ -0,0 +1,83 @@
+package be.raft.compound.benchmark;
+
+import be.raft.compound.BsonCompoundCodec;
+import be.raft.compound.BsonCompoundObject;
+import fr.atlasworld.common.compound.CompoundElement;
+import org.bson.BsonBinaryReader;
+import org.bson.BsonBinaryWriter;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.DocumentCodec;
+import org.bson.codecs.EncoderContext;
+import org.bson.io.BasicOutputBuffer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class BsonCompoundCodecBenchmark {
+    private static final DocumentCodec DOCUMENT_CODEC = new DocumentCodec();
+    private static final EncoderContext ENCODER_CONTEXT = EncoderContext.builder().build();
+    private static final DecoderContext DECODER_CONTEXT = DecoderContext.builder().build();
+
+    @Param({"FLAT", "DEEP", "LARGE_ARRAY", "BINARY"})
+    public CompoundShape shape;
+
+    private BsonCompoundObject compound;
+    private byte[] encoded;
+
+    @Setup
+    public void setup() {
+        this.compound = this.shape.build();
+        this.encoded = BsonCompoundCodec.DEFAULT.encode(this.compound);
+    }
+
+    @Benchmark
+    public BsonCompoundObject driverRoundTrip() {
+        BasicOutputBuffer buffer = new BasicOutputBuffer();
+        try (BsonBinaryWriter writer = new BsonBinaryWriter(buffer)) {
+            DOCUMENT_CODEC.encode(writer, this.compound.getDocument(), ENCODER_CONTEXT);
+        }
+
+        try (BsonBinaryReader reader = new BsonBinaryReader(ByteBuffer.wrap(buffer.toByteArray()))) {
+            return new BsonCompoundObject(DOCUMENT_CODEC.decode(reader, DECODER_CONTEXT));
+        }
+    }
+
+    @Benchmark
+    public BsonCompoundObject codecRoundTrip() {
+        byte[] bytes = BsonCompoundCodec.DEFAULT.encode(this.compound);
+        return BsonCompoundCodec.DEFAULT.decode(bytes);
+    }
+
+    @Benchmark
+    public byte[] codecEncode() {
+        return BsonCompoundCodec.DEFAULT.encode(this.compound);
+    }
+
+    @Benchmark
+    public BsonCompoundObject codecDecode() {
+        return BsonCompoundCodec.DEFAULT.decode(this.encoded);
+    }
+
+    @Benchmark
+    public CompoundElement rawGet() {
+        BsonCompoundObject raw = new BsonCompoundObject(ByteBuffer.wrap(this.encoded));
+        return raw.get(this.shape.lookupKey());
+    }
+}
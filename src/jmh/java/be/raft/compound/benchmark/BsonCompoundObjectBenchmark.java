@@ -0,0 +1,76 @@
+package be.raft.compound.benchmark;
+
+import be.raft.compound.BsonCompoundObject;
+import fr.atlasworld.common.compound.CompoundElement;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class BsonCompoundObjectBenchmark {
+    @Param({"FLAT", "DEEP", "LARGE_ARRAY", "BINARY"})
+    public CompoundShape shape;
+
+    private BsonCompoundObject compound;
+    private BsonCompoundObject equalCompound;
+
+    @Setup
+    public void setup() {
+        this.compound = this.shape.build();
+        this.equalCompound = this.shape.build();
+    }
+
+    @Benchmark
+    public BsonCompoundObject build() {
+        return this.shape.build();
+    }
+
+    @Benchmark
+    public CompoundElement get() {
+        return this.compound.get(this.shape.lookupKey());
+    }
+
+    @Benchmark
+    public void entrySet(Blackhole blackhole) {
+        for (Map.Entry<String, CompoundElement> entry : this.compound.entrySet()) {
+            blackhole.consume(entry.getValue());
+        }
+    }
+
+    @Benchmark
+    public BsonCompoundObject cloneCompound() {
+        return this.compound.clone();
+    }
+
+    @Benchmark
+    public boolean equalsCompound() {
+        return this.compound.equals(this.equalCompound);
+    }
+
+    @Benchmark
+    public int hashCodeCompound() {
+        return this.compound.hashCode();
+    }
+
+    @Benchmark
+    public String toJson() {
+        return this.compound.toJson();
+    }
+}
@@ -0,0 +1,59 @@
+package be.raft.compound.benchmark;
+
+import be.raft.compound.BsonCompoundObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Objects built in shape mode against plain ones. Run with {@code -prof gc}: objects hold small cached ints,
+ * so {@code gc.alloc.rate.norm} is the footprint of one object.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class BsonCompoundShapeBenchmark {
+    @Param({"4", "10", "20"})
+    public int fields;
+
+    private String[] keys;
+
+    @Setup
+    public void setup() {
+        this.keys = new String[this.fields];
+        for (int i = 0; i < this.fields; i++) {
+            this.keys[i] = "field" + i;
+        }
+    }
+
+    @Benchmark
+    public BsonCompoundObject buildPlain() {
+        return this.fill(new BsonCompoundObject());
+    }
+
+    @Benchmark
+    public BsonCompoundObject buildShaped() {
+        return this.fill(BsonCompoundObject.shaped());
+    }
+
+    private BsonCompoundObject fill(BsonCompoundObject object) {
+        for (int i = 0; i < this.keys.length; i++) {
+            object.add(this.keys[i], i);
+        }
+
+        return object;
+    }
+}
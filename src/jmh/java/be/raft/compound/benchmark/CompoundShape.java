@@ -0,0 +1,93 @@
+package be.raft.compound.benchmark;
+
+import be.raft.compound.BsonCompoundObject;
+import fr.atlasworld.common.compound.CompoundObject;
+
+import java.util.Random;
+
+/**
+ * Representative compound shapes used across the benchmarks.
+ */
+public enum CompoundShape {
+    FLAT("name") {
+        @Override
+        public BsonCompoundObject build() {
+            BsonCompoundObject object = new BsonCompoundObject();
+            object.add("id", 4242L)
+                    .add("name", "benchmark-entity")
+                    .add("enabled", true)
+                    .add("score", 0.75D)
+                    .add("count", 128)
+                    .add("flag", 'x')
+                    .add("owner", "raft")
+                    .add("created", 1713020000000L)
+                    .add("ratio", 12.5D)
+                    .add("retries", 3);
+
+            return object;
+        }
+    },
+    DEEP("level") {
+        @Override
+        public BsonCompoundObject build() {
+            BsonCompoundObject object = new BsonCompoundObject();
+            CompoundShape.nest(object, DEEP_LEVELS);
+
+            return object;
+        }
+    },
+    LARGE_ARRAY("values") {
+        @Override
+        public BsonCompoundObject build() {
+            BsonCompoundObject object = new BsonCompoundObject();
+            object.add("name", "samples");
+            object.addArray("values", array -> {
+                for (int i = 0; i < ARRAY_SIZE; i++) {
+                    array.add(i);
+                }
+            });
+
+            return object;
+        }
+    },
+    BINARY("payload0") {
+        @Override
+        public BsonCompoundObject build() {
+            Random random = new Random(42);
+            BsonCompoundObject object = new BsonCompoundObject();
+
+            for (int i = 0; i < BINARY_FIELDS; i++) {
+                byte[] payload = new byte[BINARY_SIZE];
+                random.nextBytes(payload);
+                object.add("payload" + i, payload);
+            }
+
+            return object;
+        }
+    };
+
+    private static final int DEEP_LEVELS = 32;
+    private static final int ARRAY_SIZE = 10_000;
+    private static final int BINARY_FIELDS = 16;
+    private static final int BINARY_SIZE = 4096;
+
+    private final String lookupKey;
+
+    CompoundShape(String lookupKey) {
+        this.lookupKey = lookupKey;
+    }
+
+    public abstract BsonCompoundObject build();
+
+    public String lookupKey() {
+        return this.lookupKey;
+    }
+
+    private static void nest(CompoundObject object, int depth) {
+        object.add("level", depth);
+        object.add("label", "level-" + depth);
+
+        if (depth > 0)
+            object.addObject("child", child -> CompoundShape.nest(child, depth - 1));
+    }
+}
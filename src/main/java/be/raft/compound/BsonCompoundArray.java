@@ -1,30 +1,74 @@
 package be.raft.compound;
 
 import com.google.common.base.Preconditions;
-import com.google.gson.JsonArray;
 import fr.atlasworld.common.compound.CompoundArray;
 import fr.atlasworld.common.compound.CompoundElement;
 import fr.atlasworld.common.compound.CompoundObject;
+import org.bson.Document;
 import org.bson.types.Binary;
 import org.jetbrains.annotations.NotNull;
 
+import java.io.IOException;
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
+import java.util.RandomAccess;
 import java.util.function.Consumer;
-import java.util.stream.Collectors;
 
-public class BsonCompoundArray extends BsonCompoundElement implements CompoundArray {
-    private final List<Object> elements;
+public class BsonCompoundArray extends BsonCompoundContainer implements CompoundArray {
+    private List<Object> elements;
 
+    /**
+     * Creates a compound over the list, the caller may keep writing to it.
+     */
     public BsonCompoundArray(@NotNull List<Object> elements) {
+        this(elements, true);
+    }
+
+    BsonCompoundArray(@NotNull List<Object> elements, boolean escaped) {
         Preconditions.checkNotNull(elements);
 
         this.elements = elements;
+        if (escaped) // Hashes are not cached, they would go stale.
+            this.escape();
+    }
+
+    public BsonCompoundArray(int capacity) {
+        this(new ArrayList<>(capacity), false);
     }
 
     public BsonCompoundArray() {
-        this(new ArrayList<>());
+        this(new ArrayList<>(), false);
+    }
+
+    /**
+     * Compound over a list not referenced anywhere else, such as a decoded one.
+     */
+    static BsonCompoundArray owned(@NotNull List<Object> elements) {
+        return new BsonCompoundArray(elements, false);
+    }
+
+    @Override
+    Object storage() {
+        return this.elements;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    void storage(Object storage) {
+        this.elements = (List<Object>) storage;
+    }
+
+    @SuppressWarnings("unchecked")
+    List<Object> elements() {
+        return (List<Object>) this.readStorage();
+    }
+
+    @SuppressWarnings("unchecked")
+    List<Object> mutableElements() {
+        return (List<Object>) this.mutableStorage(null);
     }
 
 
@@ -32,10 +76,13 @@ public class BsonCompoundArray extends BsonCompoundElement implements CompoundAr
     public CompoundArray addObject(@NotNull Consumer<CompoundObject> builder) {
         Preconditions.checkNotNull(builder);
 
-        BsonCompoundObject compoundObject = new BsonCompoundObject();
-        builder.accept(compoundObject);
+        BsonCompoundObject compoundObject = BsonCompoundObject.owned(this.newDocument());
+        builder.accept(this.pooled(compoundObject));
 
-        this.elements.add(compoundObject.getDocument());
+        Document document = compoundObject.getDocument();
+        this.adopt(document);
+
+        this.mutableElements().add(document);
 
         return this;
     }
@@ -44,10 +91,13 @@ public class BsonCompoundArray extends BsonCompoundElement implements CompoundAr
     public CompoundArray addArray(@NotNull Consumer<CompoundArray> builder) {
         Preconditions.checkNotNull(builder);
 
-        BsonCompoundArray compoundArray = new BsonCompoundArray();
-        builder.accept(compoundArray);
+        BsonCompoundArray compoundArray = BsonCompoundArray.owned(this.newList());
+        builder.accept(this.pooled(compoundArray));
+
+        List<Object> elements = compoundArray.getElements();
+        this.adopt(elements);
 
-        this.elements.add(compoundArray.elements);
+        this.mutableElements().add(elements);
 
         return this;
     }
@@ -55,38 +105,40 @@ public class BsonCompoundArray extends BsonCompoundElement implements CompoundAr
     @Override
     public CompoundArray add(@NotNull CompoundElement value) {
         Preconditions.checkNotNull(value);
-        Preconditions.checkArgument(value instanceof BsonCompoundElement, "Only BSON backed compounds are supported!");
 
-        Object object = BsonCompoundElement.fromCompound((BsonCompoundElement) value);
-        this.elements.add(object);
+        Object object = BsonCompoundElement.fromAnyCompound(value);
+        if (value instanceof BsonCompoundElement) // Snapshots of concurrent objects are not referenced anywhere else.
+            this.escapeIfContainer(object);
+
+        this.mutableElements().add(object);
 
         return this;
     }
 
     @Override
     public CompoundArray add(boolean value) {
-        this.elements.add(value);
+        this.mutableElements().add(value);
 
         return this;
     }
 
     @Override
     public CompoundArray add(double value) {
-        this.elements.add(value);
+        this.mutableElements().add(value);
 
         return this;
     }
 
     @Override
     public CompoundArray add(long value) {
-        this.elements.add(value);
+        this.mutableElements().add(value);
 
         return this;
     }
 
     @Override
     public CompoundArray add(int value) {
-        this.elements.add(value);
+        this.mutableElements().add(value);
 
         return this;
     }
@@ -94,7 +146,7 @@ public class BsonCompoundArray extends BsonCompoundElement implements CompoundAr
     @Override
     public CompoundArray add(byte value) {
         Binary binary = new Binary(new byte[]{value});
-        this.elements.add(binary);
+        this.mutableElements().add(binary);
 
         return this;
     }
@@ -102,14 +154,14 @@ public class BsonCompoundArray extends BsonCompoundElement implements CompoundAr
     @Override
     public CompoundArray add(byte[] value) {
         Binary binary = new Binary(value);
-        this.elements.add(binary);
+        this.mutableElements().add(binary);
 
         return this;
     }
 
     @Override
     public CompoundArray add(char value) {
-        this.elements.add(String.valueOf(value));
+        this.mutableElements().add(String.valueOf(value));
 
         return this;
     }
@@ -118,29 +170,109 @@ public class BsonCompoundArray extends BsonCompoundElement implements CompoundAr
     public CompoundArray add(@NotNull String value) {
         Preconditions.checkNotNull(value);
 
-        this.elements.add(value);
+        this.mutableElements().add(value);
 
         return this;
     }
 
     @Override
+    @SuppressWarnings("unchecked")
     public CompoundArray addAll(@NotNull CompoundArray array) {
         Preconditions.checkNotNull(array);
         Preconditions.checkArgument(array instanceof BsonCompoundArray, "Only BSON backed compounds are supported!");
 
-        this.elements.addAll(((BsonCompoundArray) array).elements);
+        BsonCompoundArray other = (BsonCompoundArray) array;
+        List<Object> added = other.elements();
+        if (other.isFrozen()) // Containers of a frozen tree are never shared.
+            added = (List<Object>) BsonCompoundTree.deepCopy(added);
+
+        for (Object element : added) {
+            if (BsonCompoundTree.isContainer(element) && !other.isFrozen()) { // Nested containers are now shared by both trees.
+                this.escape();
+                other.escape();
+                break;
+            }
+        }
+
+        this.mutableElements().addAll(added);
+
+        return this;
+    }
+
+    /**
+     * Adds all the values at once, values are converted like the typed {@code add} methods do.
+     */
+    public BsonCompoundArray addAll(@NotNull Collection<?> values) {
+        Preconditions.checkNotNull(values);
+
+        List<Object> elements = this.mutableElements();
+        BsonCompoundArray.ensureCapacity(elements, values.size());
+
+        for (Object value : values) {
+            Object stored = BsonCompoundElement.toStorable(value);
+            this.escapeIfContainer(stored);
+
+            elements.add(stored);
+        }
 
         return this;
     }
 
+    public BsonCompoundArray addAll(@NotNull int[] values) {
+        Preconditions.checkNotNull(values);
+
+        List<Object> elements = this.mutableElements();
+        BsonCompoundArray.ensureCapacity(elements, values.length);
+
+        for (int value : values) {
+            elements.add(value);
+        }
+
+        return this;
+    }
+
+    public BsonCompoundArray addAll(@NotNull long[] values) {
+        Preconditions.checkNotNull(values);
+
+        List<Object> elements = this.mutableElements();
+        BsonCompoundArray.ensureCapacity(elements, values.length);
+
+        for (long value : values) {
+            elements.add(value);
+        }
+
+        return this;
+    }
+
+    public BsonCompoundArray addAll(@NotNull double[] values) {
+        Preconditions.checkNotNull(values);
+
+        List<Object> elements = this.mutableElements();
+        BsonCompoundArray.ensureCapacity(elements, values.length);
+
+        for (double value : values) {
+            elements.add(value);
+        }
+
+        return this;
+    }
+
+    private static void ensureCapacity(List<Object> elements, int additional) {
+        if (elements instanceof ArrayList<Object> list)
+            list.ensureCapacity(elements.size() + additional);
+    }
+
     @Override
     public CompoundElement setObject(int index, @NotNull Consumer<CompoundObject> builder) {
         Preconditions.checkNotNull(builder);
 
-        BsonCompoundObject compoundObject = new BsonCompoundObject();
-        builder.accept(compoundObject);
+        BsonCompoundObject compoundObject = BsonCompoundObject.owned(this.newDocument());
+        builder.accept(this.pooled(compoundObject));
 
-        this.elements.add(compoundObject.getDocument());
+        Document document = compoundObject.getDocument();
+        this.adopt(document);
+
+        this.mutableElements().add(document);
         return this;
     }
 
@@ -148,20 +280,25 @@ public class BsonCompoundArray extends BsonCompoundElement implements CompoundAr
     public CompoundElement setArray(int index, @NotNull Consumer<CompoundArray> builder) {
         Preconditions.checkNotNull(builder);
 
-        BsonCompoundArray compoundArray = new BsonCompoundArray();
-        builder.accept(compoundArray);
+        BsonCompoundArray compoundArray = BsonCompoundArray.owned(this.newList());
+        builder.accept(this.pooled(compoundArray));
+
+        List<Object> elements = compoundArray.getElements();
+        this.adopt(elements);
 
-        this.elements.add(compoundArray.elements);
+        this.mutableElements().add(elements);
         return this;
     }
 
     @Override
     public CompoundElement set(int index, @NotNull CompoundElement element) {
         Preconditions.checkNotNull(element);
-        Preconditions.checkArgument(element instanceof BsonCompoundElement, "Only BSON backed compounds are supported!");
 
-        Object object = BsonCompoundElement.fromCompound((BsonCompoundElement) element);
-        this.elements.set(index, object);
+        Object object = BsonCompoundElement.fromAnyCompound(element);
+        if (element instanceof BsonCompoundElement) // Snapshots of concurrent objects are not referenced anywhere else.
+            this.escapeIfContainer(object);
+
+        this.mutableElements().set(index, object);
 
         return this;
     }
@@ -173,21 +310,21 @@ public class BsonCompoundArray extends BsonCompoundElement implements CompoundAr
 
     @Override
     public CompoundElement set(int index, double value) {
-        this.elements.add(value);
+        this.mutableElements().add(value);
 
         return this;
     }
 
     @Override
     public CompoundElement set(int index, long value) {
-        this.elements.set(index, value);
+        this.mutableElements().set(index, value);
 
         return this;
     }
 
     @Override
     public CompoundElement set(int index, int value) {
-        this.elements.set(index, value);
+        this.mutableElements().set(index, value);
 
         return this;
     }
@@ -195,7 +332,7 @@ public class BsonCompoundArray extends BsonCompoundElement implements CompoundAr
     @Override
     public CompoundElement set(int index, byte value) {
         Binary binary = new Binary(new byte[]{value});
-        this.elements.set(index, binary);
+        this.mutableElements().set(index, binary);
 
         return this;
     }
@@ -205,14 +342,14 @@ public class BsonCompoundArray extends BsonCompoundElement implements CompoundAr
         Preconditions.checkNotNull(value);
 
         Binary binary = new Binary(value);
-        this.elements.set(index, binary);
+        this.mutableElements().set(index, binary);
 
         return this;
     }
 
     @Override
     public CompoundElement set(int index, char value) {
-        this.elements.set(index, value);
+        this.mutableElements().set(index, value);
 
         return this;
     }
@@ -221,7 +358,7 @@ public class BsonCompoundArray extends BsonCompoundElement implements CompoundAr
     public CompoundElement set(int index, @NotNull String value) {
         Preconditions.checkNotNull(value);
 
-        this.elements.set(index, value);
+        this.mutableElements().set(index, value);
 
         return this;
     }
@@ -229,94 +366,142 @@ public class BsonCompoundArray extends BsonCompoundElement implements CompoundAr
     @Override
     public boolean remove(@NotNull CompoundElement element) {
         Preconditions.checkNotNull(element);
-        Preconditions.checkArgument(element instanceof BsonCompoundElement, "Only BSON backed compounds are supported!");
 
-        Object object = BsonCompoundElement.fromCompound((BsonCompoundElement) element);
-        return this.elements.remove(object);
+        Object object = BsonCompoundElement.fromAnyCompound(element);
+        return this.mutableElements().remove(object);
     }
 
     @Override
     public CompoundElement remove(int index) {
-        Object stored = this.elements.remove(index);
-        return BsonCompoundElement.toCompound(stored);
+        Object stored = this.mutableElements().remove(index);
+        return BsonCompoundElement.toOwnedCompound(stored);
+    }
+
+    /**
+     * Removes all the elements, the list keeps its capacity.
+     */
+    public BsonCompoundArray clear() {
+        this.mutableElements().clear();
+        return this;
     }
 
     @Override
     public boolean contains(@NotNull CompoundElement element) {
         Preconditions.checkNotNull(element);
-        Preconditions.checkArgument(element instanceof BsonCompoundElement, "Only BSON backed compounds are supported!");
 
-        Object object = BsonCompoundElement.fromCompound((BsonCompoundElement) element);
-        return this.elements.contains(object);
+        Object object = BsonCompoundElement.fromAnyCompound(element);
+        return this.elements().contains(object);
     }
 
     @Override
     public int size() {
-        return this.elements.size();
+        return this.elements().size();
     }
 
     @Override
     public boolean isEmpty() {
-        return this.elements.isEmpty();
+        return this.elements().isEmpty();
     }
 
     @Override
     public CompoundElement get(int index) {
-        return BsonCompoundElement.toCompound(this.elements.get(index));
+        return this.wrap(this.elements().get(index), index);
     }
 
     @Override
     public List<CompoundElement> asList() {
-        return this.elements.stream()
-                .map(BsonCompoundElement::toCompound)
-                .collect(Collectors.toUnmodifiableList());
+        return new ElementView();
+    }
+
+    @Override
+    public void writeJson(@NotNull Appendable out) throws IOException {
+        BsonCompoundFrozen frozen = this.frozen();
+        if (frozen != null) {
+            out.append(frozen.json(this.elements()));
+            return;
+        }
+
+        BsonCompoundJsonWriter.writeArray(this.elements(), out);
     }
 
     @Override
     public String toJson() {
-        JsonArray array = new JsonArray();
-        this.elements.stream()
-                .map(BsonCompoundElement::toCompound)
-                .map(CompoundElement::toJson)
-                .forEach(array::add);
+        BsonCompoundFrozen frozen = this.frozen();
+        if (frozen != null)
+            return frozen.json(this.elements());
 
-        return array.toString();
+        return super.toJson();
+    }
+
+    /**
+     * Immutable deep snapshot of this compound, its JSON encoding and hash are computed once.
+     * Mutators of the snapshot, and of the compounds read from it, throw {@link UnsupportedOperationException}.
+     */
+    public BsonCompoundArray freeze() {
+        if (this.frozen() != null)
+            return this;
+
+        BsonCompoundArray frozen = (BsonCompoundArray) BsonCompoundElement.toOwnedCompound(BsonCompoundTree.deepCopy(this.elements()));
+        frozen.freezeRoot();
+
+        return frozen;
+    }
+
+    public boolean isFrozen() {
+        return this.isFrozenTree();
     }
 
     @Override
     public boolean equals(Object obj) {
-        if (obj == null)
-            return false;
+        if (obj == this)
+            return true;
 
         if (!(obj instanceof BsonCompoundArray other))
             return false;
 
-        return other.elements.equals(this.elements);
+        if (this.hashMismatch(other))
+            return false;
+
+        return other.elements().equals(this.elements());
     }
 
     @Override
     public int hashCode() {
-        return this.elements.hashCode();
+        return this.cachedHashCode();
     }
 
     @Override
     public BsonCompoundArray clone() {
-        List<Object> list = new ArrayList<>();
-        list.addAll(this.elements);
+        if (CompoundMetrics.ENABLED)
+            CompoundMetrics.cloned(this.size());
 
-        return new BsonCompoundArray(list);
+        if (this.isEscaped()) // Containers may be written to from outside the tree, sharing them would alias both sides.
+            return (BsonCompoundArray) BsonCompoundElement.toOwnedCompound(BsonCompoundTree.deepCopy(this.elements()));
+
+        return this.share((BsonCompoundArray) BsonCompoundElement.toOwnedCompound(this.elements()));
     }
 
     @NotNull
     @Override
     public Iterator<CompoundElement> iterator() {
-        return this.elements.stream()
-                .map(BsonCompoundElement::toCompound)
-                .map(compound -> (CompoundElement) compound)
-                .iterator();
+        return new ElementView().iterator();
     }
 
+    @SuppressWarnings("unchecked")
     public List<Object> getElements() {
-        return elements;
+        return (List<Object>) this.exclusiveStorage();
+    }
+
+    // Read-only view over the elements, elements are wrapped on access only.
+    private final class ElementView extends AbstractList<CompoundElement> implements RandomAccess {
+        @Override
+        public CompoundElement get(int index) {
+            return BsonCompoundArray.this.get(index);
+        }
+
+        @Override
+        public int size() {
+            return BsonCompoundArray.this.size();
+        }
     }
 }
@@ -0,0 +1,425 @@
+package be.raft.compound;
+
+import com.google.common.base.Preconditions;
+import org.bson.BsonBinary;
+import org.bson.BsonBinaryReader;
+import org.bson.BsonBinaryWriter;
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+import org.bson.Document;
+import org.bson.codecs.BsonTypeClassMap;
+import org.bson.codecs.BsonValueCodecProvider;
+import org.bson.codecs.Codec;
+import org.bson.codecs.CollectionCodecProvider;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.DocumentCodecProvider;
+import org.bson.codecs.EncoderContext;
+import org.bson.codecs.MapCodecProvider;
+import org.bson.codecs.ValueCodecProvider;
+import org.bson.codecs.configuration.CodecRegistries;
+import org.bson.codecs.configuration.CodecRegistry;
+import org.bson.codecs.jsr310.Jsr310CodecProvider;
+import org.bson.io.BasicOutputBuffer;
+import org.bson.io.BsonOutput;
+import org.bson.types.Binary;
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Encodes and decodes compounds straight between BSON and their {@link Document} / {@link List} storage.
+ * <p>
+ * The value types stored by the compounds are written and read directly,
+ * the codec registry is only consulted for values outside the compound model (ObjectId, Decimal128...).
+ */
+public class BsonCompoundCodec implements Codec<BsonCompoundObject> {
+    private static final CodecRegistry DEFAULT_REGISTRY = CodecRegistries.fromProviders(
+            new ValueCodecProvider(),
+            new BsonValueCodecProvider(),
+            new DocumentCodecProvider(),
+            new CollectionCodecProvider(),
+            new MapCodecProvider(),
+            new Jsr310CodecProvider()
+    );
+
+    private static final EncoderContext ENCODER_CONTEXT = EncoderContext.builder().build();
+    private static final DecoderContext DECODER_CONTEXT = DecoderContext.builder().build();
+
+    public static final BsonCompoundCodec DEFAULT = new BsonCompoundCodec();
+    public static final BsonCompoundCodec SHAPED = new BsonCompoundCodec(DEFAULT_REGISTRY, true);
+
+    private final CodecRegistry fallbackRegistry;
+    private final BsonTypeClassMap bsonTypeClassMap;
+    private final boolean shaped;
+
+    /**
+     * @param shaped whether documents are decoded in shape mode, see {@link BsonCompoundObject#shaped()}.
+     */
+    public BsonCompoundCodec(@NotNull CodecRegistry fallbackRegistry, boolean shaped) {
+        Preconditions.checkNotNull(fallbackRegistry);
+
+        this.fallbackRegistry = fallbackRegistry;
+        this.bsonTypeClassMap = new BsonTypeClassMap();
+        this.shaped = shaped;
+    }
+
+    public BsonCompoundCodec(@NotNull CodecRegistry fallbackRegistry) {
+        this(fallbackRegistry, false);
+    }
+
+    public BsonCompoundCodec() {
+        this(DEFAULT_REGISTRY);
+    }
+
+    public byte[] encode(@NotNull BsonCompoundObject object) {
+        Preconditions.checkNotNull(object);
+
+        byte[] frozen = object.frozenBson();
+        if (frozen != null)
+            return frozen.clone();
+
+        try (BasicOutputBuffer buffer = new BasicOutputBuffer()) {
+            this.encode(object, buffer);
+            return buffer.toByteArray();
+        }
+    }
+
+    public void encode(@NotNull BsonCompoundObject object, @NotNull BsonOutput output) {
+        Preconditions.checkNotNull(object);
+        Preconditions.checkNotNull(output);
+
+        byte[] frozen = object.frozenBson();
+        if (frozen != null) {
+            output.writeBytes(frozen);
+            return;
+        }
+
+        try (BsonBinaryWriter writer = new BsonBinaryWriter(output)) {
+            this.encode(writer, object, ENCODER_CONTEXT);
+        }
+    }
+
+    public BsonCompoundObject decode(@NotNull byte[] bytes) {
+        Preconditions.checkNotNull(bytes);
+
+        return this.decode(ByteBuffer.wrap(bytes));
+    }
+
+    public BsonCompoundObject decode(@NotNull ByteBuffer buffer) {
+        Preconditions.checkNotNull(buffer);
+
+        try (BsonBinaryReader reader = new BsonBinaryReader(buffer.duplicate())) {
+            return this.decode(reader, DECODER_CONTEXT);
+        }
+    }
+
+    /**
+     * Decodes only the projected fields, other subtrees are skipped over without being parsed.
+     */
+    public BsonCompoundObject decode(@NotNull ByteBuffer buffer, @NotNull CompoundProjection projection) {
+        Preconditions.checkNotNull(buffer);
+        Preconditions.checkNotNull(projection);
+
+        try (BsonBinaryReader reader = new BsonBinaryReader(buffer.duplicate())) {
+            return BsonCompoundObject.owned(this.readDocument(reader, projection));
+        }
+    }
+
+    public BsonCompoundObject decode(@NotNull byte[] bytes, @NotNull CompoundProjection projection) {
+        Preconditions.checkNotNull(bytes);
+
+        return this.decode(ByteBuffer.wrap(bytes), projection);
+    }
+
+    @Override
+    public void encode(BsonWriter writer, BsonCompoundObject value, EncoderContext encoderContext) {
+        Preconditions.checkNotNull(writer);
+        Preconditions.checkNotNull(value);
+
+        if (!CompoundMetrics.ENABLED) {
+            this.encodeObject(writer, value);
+            return;
+        }
+
+        long start = System.nanoTime();
+        int position = CompoundMetrics.position(writer);
+
+        this.encodeObject(writer, value);
+
+        int bytes = position < 0 ? -1 : CompoundMetrics.position(writer) - position;
+        CompoundMetrics.encoded(value, bytes, System.nanoTime() - start);
+    }
+
+    private void encodeObject(BsonWriter writer, BsonCompoundObject value) {
+        if (value.isRaw()) { // Raw compounds are already encoded.
+            value.raw().pipe(writer);
+            return;
+        }
+
+        byte[] frozen = value.frozenBson();
+        if (frozen != null) {
+            new BsonCompoundRaw(ByteBuffer.wrap(frozen)).pipe(writer);
+            return;
+        }
+
+        this.writeDocument(writer, value.document());
+    }
+
+    @Override
+    public BsonCompoundObject decode(BsonReader reader, DecoderContext decoderContext) {
+        Preconditions.checkNotNull(reader);
+
+        if (!CompoundMetrics.ENABLED)
+            return BsonCompoundObject.owned(this.readDocument(reader));
+
+        long start = System.nanoTime();
+        int position = CompoundMetrics.position(reader);
+
+        Document document = this.readDocument(reader);
+
+        int bytes = position < 0 ? -1 : CompoundMetrics.position(reader) - position;
+        CompoundMetrics.decoded(document, bytes, System.nanoTime() - start);
+
+        return BsonCompoundObject.owned(document);
+    }
+
+    @Override
+    public Class<BsonCompoundObject> getEncoderClass() {
+        return BsonCompoundObject.class;
+    }
+
+    public void encode(@NotNull BsonWriter writer, @NotNull BsonCompoundArray array) {
+        Preconditions.checkNotNull(writer);
+        Preconditions.checkNotNull(array);
+
+        this.encodeValue(writer, array.elements());
+    }
+
+    public byte[] encode(@NotNull ConcurrentBsonCompoundObject object) {
+        Preconditions.checkNotNull(object);
+
+        try (BasicOutputBuffer buffer = new BasicOutputBuffer(); BsonBinaryWriter writer = new BsonBinaryWriter(buffer)) {
+            this.encode(writer, object);
+            return buffer.toByteArray();
+        }
+    }
+
+    /**
+     * Encodes a snapshot of the concurrent object, fields are written in insertion order.
+     */
+    public void encode(@NotNull BsonWriter writer, @NotNull ConcurrentBsonCompoundObject object) {
+        Preconditions.checkNotNull(writer);
+        Preconditions.checkNotNull(object);
+
+        this.writeDocument(writer, object.ordered());
+    }
+
+    public BsonCompoundArray decodeArray(@NotNull BsonReader reader) {
+        Preconditions.checkNotNull(reader);
+
+        return BsonCompoundArray.owned(this.readArray(reader));
+    }
+
+    public void writeDocument(@NotNull BsonWriter writer, @NotNull Map<String, ?> document) {
+        writer.writeStartDocument();
+
+        for (Map.Entry<String, ?> entry : document.entrySet()) {
+            writer.writeName(entry.getKey());
+            this.encodeValue(writer, entry.getValue());
+        }
+
+        writer.writeEndDocument();
+    }
+
+    public void writeArray(@NotNull BsonWriter writer, @NotNull Collection<?> elements) {
+        writer.writeStartArray();
+
+        for (Object element : elements) {
+            this.encodeValue(writer, element);
+        }
+
+        writer.writeEndArray();
+    }
+
+    public Document readDocument(@NotNull BsonReader reader) {
+        Document document = this.newDocument();
+
+        reader.readStartDocument();
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            String key = reader.readName();
+            document.put(key, this.readValue(reader));
+        }
+        reader.readEndDocument();
+
+        return document;
+    }
+
+    public Document readDocument(@NotNull BsonReader reader, @NotNull CompoundProjection projection) {
+        Document document = this.newDocument();
+        int remaining = projection.size();
+        boolean ended = false;
+
+        reader.readStartDocument();
+        while (remaining > 0) {
+            if (reader.readBsonType() == BsonType.END_OF_DOCUMENT) {
+                ended = true;
+                break;
+            }
+
+            String key = reader.readName();
+            CompoundProjection field = projection.get(key);
+            if (field == null) {
+                reader.skipValue();
+                continue;
+            }
+
+            remaining--;
+            if (field.isIncluded())
+                document.put(key, this.readValue(reader));
+            else if (reader.getCurrentBsonType() == BsonType.DOCUMENT)
+                document.put(key, this.readDocument(reader, field));
+            else if (reader.getCurrentBsonType() == BsonType.ARRAY)
+                document.put(key, this.readArray(reader, field));
+            else // Scalars have no nested fields to project.
+                reader.skipValue();
+        }
+
+        // Every projected field was read, the rest of the document is only skipped.
+        // Nested reads leave the current type at the end of their own document, so it cannot tell whether this one ended.
+        while (!ended && reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            reader.skipName();
+            reader.skipValue();
+        }
+        reader.readEndDocument();
+
+        return document;
+    }
+
+    private List<Object> readArray(BsonReader reader, CompoundProjection projection) {
+        List<Object> elements = new ArrayList<>();
+
+        reader.readStartArray();
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            if (reader.getCurrentBsonType() == BsonType.DOCUMENT)
+                elements.add(this.readDocument(reader, projection));
+            else
+                reader.skipValue();
+        }
+        reader.readEndArray();
+
+        return elements;
+    }
+
+    private Document newDocument() {
+        return this.shaped ? new BsonCompoundShapedDocument() : new Document();
+    }
+
+    public List<Object> readArray(@NotNull BsonReader reader) {
+        List<Object> elements = new ArrayList<>();
+
+        reader.readStartArray();
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            elements.add(this.readValue(reader));
+        }
+        reader.readEndArray();
+
+        return elements;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    void encodeValue(BsonWriter writer, Object value) {
+        if (value == null) {
+            writer.writeNull();
+        } else if (value instanceof String string) {
+            writer.writeString(string);
+        } else if (value instanceof Integer integer) {
+            writer.writeInt32(integer);
+        } else if (value instanceof Long longValue) {
+            writer.writeInt64(longValue);
+        } else if (value instanceof Double doubleValue) {
+            writer.writeDouble(doubleValue);
+        } else if (value instanceof Boolean bool) {
+            writer.writeBoolean(bool);
+        } else if (value instanceof Binary binary) {
+            writer.writeBinaryData(new BsonBinary(binary.getType(), binary.getData()));
+        } else if (value instanceof Date date) {
+            writer.writeDateTime(date.getTime());
+        } else if (value instanceof Document document) {
+            this.writeDocument(writer, document);
+        } else if (value instanceof ConcurrentBsonCompoundObject object) {
+            this.writeDocument(writer, object.ordered());
+        } else if (value instanceof IntArrayList ints) {
+            writer.writeStartArray();
+            for (int i = 0; i < ints.size(); i++) {
+                writer.writeInt32(ints.getInt(i));
+            }
+            writer.writeEndArray();
+        } else if (value instanceof LongArrayList longs) {
+            writer.writeStartArray();
+            for (int i = 0; i < longs.size(); i++) {
+                writer.writeInt64(longs.getLong(i));
+            }
+            writer.writeEndArray();
+        } else if (value instanceof DoubleArrayList doubles) {
+            writer.writeStartArray();
+            for (int i = 0; i < doubles.size(); i++) {
+                writer.writeDouble(doubles.getDouble(i));
+            }
+            writer.writeEndArray();
+        } else if (value instanceof List<?> list) {
+            this.writeArray(writer, list);
+        } else {
+            Codec codec = this.fallbackRegistry.get(value.getClass());
+            ENCODER_CONTEXT.encodeWithChildContext(codec, writer, value);
+        }
+    }
+
+    Object readValue(BsonReader reader) {
+        BsonType type = reader.getCurrentBsonType();
+
+        switch (type) {
+            case NULL -> {
+                reader.readNull();
+                return null;
+            }
+            case STRING -> {
+                return reader.readString();
+            }
+            case INT32 -> {
+                return reader.readInt32();
+            }
+            case INT64 -> {
+                return reader.readInt64();
+            }
+            case DOUBLE -> {
+                return reader.readDouble();
+            }
+            case BOOLEAN -> {
+                return reader.readBoolean();
+            }
+            case BINARY -> {
+                BsonBinary binary = reader.readBinaryData();
+                return new Binary(binary.getType(), binary.getData());
+            }
+            case DATE_TIME -> {
+                return new Date(reader.readDateTime());
+            }
+            case DOCUMENT -> {
+                return this.readDocument(reader);
+            }
+            case ARRAY -> {
+                return this.readArray(reader);
+            }
+            default -> {
+                Codec<?> codec = this.fallbackRegistry.get(this.bsonTypeClassMap.get(type));
+                return DECODER_CONTEXT.decodeWithChildContext(codec, reader);
+            }
+        }
+    }
+}
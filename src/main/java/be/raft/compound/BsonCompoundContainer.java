@@ -0,0 +1,389 @@
+package be.raft.compound;
+
+import com.google.common.base.Preconditions;
+import org.bson.Document;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Base of the compounds wrapping a mutable container (document or list).
+ * <p>
+ * Containers obtained from another container remember where they are stored, so clones can share
+ * whole subtrees and copy a container only when it is written to through either side.
+ */
+abstract class BsonCompoundContainer extends BsonCompoundElement {
+    private BsonCompoundContainer parent;
+    private Object parentKey;
+    private BsonCompoundContainer root = this;
+    private BsonCompoundTree tree; // Only set on roots sharing containers with a clone.
+    private BsonCompoundHashCache hashes; // Only set on roots, once hashed.
+    private boolean escaped; // Only set on roots whose containers can be mutated from outside the tree.
+    private BsonCompoundJournal journal; // Only set on roots tracking their changes.
+    private BsonCompoundFrozen frozen; // Only set on frozen roots.
+    private CompoundPool pool; // Only set on roots whose nested containers come from a pool.
+    private boolean released; // Only set on roots given back to their pool.
+    private boolean detached; // Only set on containers decoded from a raw parent, until first written.
+
+    /**
+     * The wrapped container, as currently referenced by this compound.
+     */
+    abstract Object storage();
+
+    abstract void storage(Object storage);
+
+    /**
+     * Wraps a value stored in this container under the given key or index.
+     */
+    final BsonCompoundElement wrap(Object value, Object key) {
+        BsonCompoundElement element = BsonCompoundElement.toOwnedCompound(value);
+
+        if (element instanceof BsonCompoundContainer container) {
+            container.parent = this;
+            container.parentKey = key;
+            container.root = this.root;
+        }
+
+        return element;
+    }
+
+    /**
+     * Wraps a value decoded from the raw bytes of this container, a container is a copy
+     * which is stored back into this one once written to.
+     */
+    final BsonCompoundElement wrapDetached(Object value, Object key) {
+        BsonCompoundElement element = this.wrap(value, key);
+        if (element instanceof BsonCompoundContainer container)
+            container.detached = true;
+
+        return element;
+    }
+
+    /**
+     * Container to read from, follows copies made through other compounds of the same tree.
+     */
+    final Object readStorage() {
+        BsonCompoundTree tree = this.root.tree;
+        if (tree == null)
+            return this.storage();
+
+        return this.resolveStorage(tree);
+    }
+
+    /**
+     * Container to write to, copies it and its path to the root first if it is still shared with a clone.
+     */
+    final Object mutableStorage() {
+        if (this.root.frozen != null)
+            throw new UnsupportedOperationException("Frozen compounds cannot be modified!");
+
+        Preconditions.checkState(!this.root.released, "Compound was released to its pool!");
+
+        if (this.detached)
+            this.attach();
+
+        BsonCompoundTree tree = this.root.tree;
+        Object storage = tree == null ? this.storage() : this.copyOnWrite(tree);
+
+        BsonCompoundHashCache hashes = this.root.hashes;
+        if (hashes != null) {
+            for (BsonCompoundContainer container = this; container != null; container = container.parent) {
+                hashes.invalidate(container.storage());
+            }
+        }
+
+        return storage;
+    }
+
+    /**
+     * Container to write the given key to, the write is recorded if the tree tracks its changes.
+     * Arrays record themselves as a whole, as writes may shift their elements.
+     */
+    final Object mutableStorage(Object key) {
+        BsonCompoundJournal journal = this.root.journal;
+        if (journal != null)
+            journal.record(this.path(key));
+
+        return this.mutableStorage();
+    }
+
+    // Decodes the raw parent and replaces its value with this copy, so the write reaches the tree.
+    private void attach() {
+        this.detached = false;
+
+        Object storage = this.storage();
+        ((Document) this.parent.mutableStorage()).put((String) this.parentKey, storage);
+        this.parent.adopt(storage);
+    }
+
+    private String[] path(Object key) {
+        int depth = key == null ? 0 : 1;
+        for (BsonCompoundContainer container = this; container.parent != null; container = container.parent) {
+            depth++;
+        }
+
+        String[] path = new String[depth];
+        if (key != null)
+            path[--depth] = key.toString();
+
+        for (BsonCompoundContainer container = this; container.parent != null; container = container.parent) {
+            path[--depth] = container.parentKey.toString();
+        }
+
+        return path;
+    }
+
+    private Object copyOnWrite(BsonCompoundTree tree) {
+        Object storage = this.resolveStorage(tree);
+        if (tree.owns(storage))
+            return storage;
+
+        Object copy = BsonCompoundTree.copy(storage);
+        tree.own(copy);
+
+        if (this.parent != null)
+            BsonCompoundTree.replace(this.parent.mutableStorage(), this.parentKey, storage, copy);
+
+        this.storage(copy);
+        return copy;
+    }
+
+    /**
+     * Container handed out to callers, nothing reachable from it is shared with a clone anymore.
+     */
+    final Object exclusiveStorage() {
+        if (this.root.frozen != null) // Frozen containers are never handed out.
+            return BsonCompoundTree.deepCopy(this.readStorage());
+
+        Object storage = this.mutableStorage();
+        this.escape();
+
+        BsonCompoundJournal journal = this.root.journal;
+        if (journal != null) // The caller may write to it at any time.
+            journal.pin(this.path(null), (Document) this.root.readStorage());
+
+        BsonCompoundTree tree = this.root.tree;
+        if (tree != null)
+            tree.ownDeep(storage);
+
+        return storage;
+    }
+
+    /**
+     * Stops caching hashes for the whole tree, its containers may now be mutated without going through it.
+     */
+    final void escape() {
+        if (this.root.frozen != null) // Nothing can mutate a frozen tree.
+            return;
+
+        this.root.escaped = true;
+        this.root.hashes = null;
+    }
+
+    /**
+     * Escapes the tree if the stored value is a container that may also be referenced from outside of it.
+     */
+    final void escapeIfContainer(Object value) {
+        if (BsonCompoundTree.isContainer(value))
+            this.escape();
+    }
+
+    /**
+     * Hash of the container, cached per subtree until written to.
+     */
+    final int cachedHashCode() {
+        Object storage = this.readStorage();
+
+        BsonCompoundContainer root = this.root;
+        if (root.escaped)
+            return storage.hashCode();
+
+        if (root.hashes == null)
+            root.hashes = new BsonCompoundHashCache();
+
+        return root.hashes.hash(storage);
+    }
+
+    /**
+     * Hash cache of the tree with this container hashed, {@code null} if the tree escaped.
+     */
+    final BsonCompoundHashCache hashes() {
+        this.cachedHashCode();
+        return this.root.hashes;
+    }
+
+    /**
+     * Whether both containers have a cached hash and these differ, in which case they cannot be equal.
+     */
+    final boolean hashMismatch(BsonCompoundContainer other) {
+        BsonCompoundHashCache hashes = this.root.hashes;
+        BsonCompoundHashCache otherHashes = other.root.hashes;
+        if (hashes == null || otherHashes == null)
+            return false;
+
+        Integer hash = hashes.cached(this.readStorage());
+        Integer otherHash = otherHashes.cached(other.readStorage());
+
+        return hash != null && otherHash != null && !hash.equals(otherHash);
+    }
+
+    /**
+     * Starts recording the paths written to in the whole tree.
+     */
+    final void startTracking() {
+        Preconditions.checkState(this.root.frozen == null, "Frozen compounds cannot be modified!");
+        Preconditions.checkState(this.root instanceof BsonCompoundObject, "Only trees rooted at an object can track changes!");
+
+        if (this.root.journal == null)
+            this.root.journal = new BsonCompoundJournal();
+    }
+
+    final boolean isTracking() {
+        return this.root.journal != null;
+    }
+
+    final boolean hasTrackedChanges() {
+        BsonCompoundJournal journal = this.root.journal;
+        return journal != null && !journal.isEmpty();
+    }
+
+    /**
+     * Changes since the last drain, with the current values of the written paths.
+     */
+    final CompoundDiff drainTrackedChanges() {
+        BsonCompoundJournal journal = this.root.journal;
+        Preconditions.checkState(journal != null, "Changes are not tracked!");
+
+        Document document = (Document) this.root.readStorage();
+        return CompoundDiff.ofPaths(document, journal.drain(document));
+    }
+
+    /**
+     * Makes this new root immutable, its containers must not be referenced from anywhere else.
+     * Hashes of the whole tree are computed upfront so reads never write to the tree.
+     */
+    final void freezeRoot() {
+        Preconditions.checkState(this.root == this, "Only roots can be frozen!");
+
+        this.hashes = new BsonCompoundHashCache();
+        this.hashes.hash(this.storage());
+        this.frozen = new BsonCompoundFrozen();
+    }
+
+    final boolean isFrozenTree() {
+        return this.root.frozen != null;
+    }
+
+    /**
+     * Cached encodings, only set when this compound is a frozen root.
+     */
+    final BsonCompoundFrozen frozen() {
+        return this.root == this ? this.frozen : null;
+    }
+
+    /**
+     * Marks a container created by this compound as owned, it is not referenced by any clone.
+     */
+    final void adopt(Object storage) {
+        BsonCompoundTree tree = this.root.tree;
+        if (tree != null)
+            tree.own(storage);
+    }
+
+    /**
+     * Empty document for a nested object, taken from the pool of the tree if any.
+     */
+    final Document newDocument() {
+        CompoundPool pool = this.root.pool;
+        return pool == null ? new Document() : pool.document();
+    }
+
+    /**
+     * Empty list for a nested array, taken from the pool of the tree if any.
+     */
+    final List<Object> newList() {
+        CompoundPool pool = this.root.pool;
+        return pool == null ? new ArrayList<>() : pool.list();
+    }
+
+    /**
+     * Makes the given builder compound take its nested containers from the pool of this tree.
+     */
+    final <T extends BsonCompoundContainer> T pooled(T compound) {
+        ((BsonCompoundContainer) compound).pool = this.root.pool;
+        return compound;
+    }
+
+    final void pool(CompoundPool pool) {
+        this.pool = pool;
+    }
+
+    final CompoundPool pool() {
+        return this.pool;
+    }
+
+    /**
+     * Whether containers of the tree may be referenced from outside of it.
+     */
+    final boolean isEscaped() {
+        return this.root.escaped;
+    }
+
+    /**
+     * Whether no container of this root is referenced from outside of it, clones and callers included.
+     */
+    final boolean isExclusive() {
+        return this.root == this && this.tree == null && !this.escaped && this.frozen == null;
+    }
+
+    /**
+     * Forgets the tracking, clone and hash state of this root, as for a new compound.
+     */
+    final void resetRoot() {
+        Preconditions.checkState(this.root == this, "Only roots can be reset!");
+
+        this.tree = null;
+        this.hashes = null;
+        this.escaped = false;
+        this.journal = null;
+    }
+
+    /**
+     * Detaches this root from the pool for good, writing through it or a compound read from it throws.
+     */
+    final void release(Object storage) {
+        this.resetRoot();
+        this.storage(storage);
+        this.released = true;
+    }
+
+    /**
+     * Shares the whole tree of this compound with the given clone of it.
+     * Only trees which did not escape can be shared, the others must be deep copied.
+     */
+    final <T extends BsonCompoundContainer> T share(T clone) {
+        Preconditions.checkState(!this.root.escaped, "Escaped trees cannot be shared!");
+
+        if (this.root.frozen == null) // A frozen tree is never written to, only the clone needs to copy.
+            this.root.tree = new BsonCompoundTree();
+
+        ((BsonCompoundContainer) clone).tree = new BsonCompoundTree();
+
+        return clone;
+    }
+
+    private Object resolveStorage(BsonCompoundTree tree) {
+        Object storage = this.storage();
+        if (this.parent == null)
+            return storage;
+
+        // Another compound of the tree may already have copied this container.
+        Object current = BsonCompoundTree.slot(this.parent.resolveStorage(tree), this.parentKey);
+        if (current != storage && current != null && current.getClass() == storage.getClass() && tree.owns(current)) {
+            this.storage(current);
+            return current;
+        }
+
+        return storage;
+    }
+}
@@ -0,0 +1,72 @@
+package be.raft.compound;
+
+import com.google.common.base.Preconditions;
+import fr.atlasworld.common.compound.CompoundArray;
+import fr.atlasworld.common.compound.CompoundElement;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Compound array storing {@code double} values unboxed in a growable {@code double[]}.
+ * <p>
+ * Adding anything other than a {@code double} throws an {@link IllegalArgumentException}.
+ */
+public class BsonCompoundDoubleArray extends BsonCompoundArray {
+    BsonCompoundDoubleArray(@NotNull DoubleArrayList values) {
+        super(values, false);
+    }
+
+    public BsonCompoundDoubleArray(int capacity) {
+        this(new DoubleArrayList(capacity));
+    }
+
+    public BsonCompoundDoubleArray(@NotNull double[] values) {
+        this(new DoubleArrayList(Preconditions.checkNotNull(values)));
+    }
+
+    public BsonCompoundDoubleArray() {
+        this(10);
+    }
+
+    @Override
+    public CompoundArray add(double value) {
+        this.mutableValues().addDouble(value);
+
+        return this;
+    }
+
+    @Override
+    public BsonCompoundDoubleArray addAll(@NotNull double[] values) {
+        Preconditions.checkNotNull(values);
+
+        this.mutableValues().addAll(values, 0, values.length);
+        return this;
+    }
+
+    @Override
+    public CompoundElement set(int index, double value) {
+        this.mutableValues().setDouble(index, value);
+
+        return this;
+    }
+
+    public double getDouble(int index) {
+        return this.values().getDouble(index);
+    }
+
+    public double[] toDoubleArray() {
+        return this.values().toDoubleArray();
+    }
+
+    @Override
+    public BsonCompoundDoubleArray clone() {
+        return (BsonCompoundDoubleArray) super.clone();
+    }
+
+    private DoubleArrayList values() {
+        return (DoubleArrayList) this.elements();
+    }
+
+    private DoubleArrayList mutableValues() {
+        return (DoubleArrayList) this.mutableElements();
+    }
+}
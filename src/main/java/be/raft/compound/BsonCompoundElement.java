@@ -1,25 +1,82 @@
 package be.raft.compound;
 
+import com.google.common.base.Preconditions;
 import fr.atlasworld.common.compound.CompoundElement;
 import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.types.Binary;
+import org.jetbrains.annotations.NotNull;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
+import java.util.List;
 
 public abstract class BsonCompoundElement implements CompoundElement {
 
+    /**
+     * Wraps the value, a container is wrapped as a view and may still be mutated by the caller.
+     */
     public static BsonCompoundElement toCompound(Object object) {
+        BsonCompoundElement element = BsonCompoundElement.toOwnedCompound(object);
+        if (element instanceof BsonCompoundContainer container) // Hashes are not cached, they would go stale.
+            container.escape();
+
+        return element;
+    }
+
+    /**
+     * Wraps a value stored in a compound tree or not referenced anywhere else, its containers are owned by the compound.
+     */
+    static BsonCompoundElement toOwnedCompound(Object object) {
+        BsonCompoundElement element = BsonCompoundElement.wrapValue(object);
+        if (CompoundMetrics.ENABLED && !BsonCompoundElement.isShared(element)) // Only allocations are counted.
+            CompoundMetrics.wrapped(element);
+
+        return element;
+    }
+
+    private static boolean isShared(BsonCompoundElement element) {
+        return element == BsonCompoundNull.NULL || element instanceof BsonCompoundPrimitive primitive && primitive.isShared();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static BsonCompoundElement wrapValue(Object object) {
         if (object == null)
             return BsonCompoundNull.NULL;
 
+        // Primitives are the most common values, they skip the container checks.
+        BsonCompoundPrimitive.Type type = BsonCompoundPrimitive.typeOf(object);
+        if (type != BsonCompoundPrimitive.Type.OTHER)
+            return BsonCompoundPrimitive.of(object, type);
+
+        if (object instanceof IntArrayList ints)
+            return new BsonCompoundIntArray(ints);
+
+        if (object instanceof LongArrayList longs)
+            return new BsonCompoundLongArray(longs);
+
+        if (object instanceof DoubleArrayList doubles)
+            return new BsonCompoundDoubleArray(doubles);
+
+        if (object instanceof List<?> list) // Wrapped as a view, writes reach the stored list.
+            return BsonCompoundArray.owned((List<Object>) list);
+
         if (object instanceof Collection<?> collection)
-            return new BsonCompoundArray(new ArrayList<>(collection));
+            return BsonCompoundArray.owned(new ArrayList<>(collection));
 
         if (object instanceof Document document)
-            return new BsonCompoundObject(document);
+            return BsonCompoundObject.owned(document);
+
+        if (object instanceof BsonCompoundRaw raw)
+            return new BsonCompoundObject(raw);
+
+        if (object instanceof RawBsonDocument raw)
+            return new BsonCompoundObject(raw);
 
-        return new BsonCompoundPrimitive(object);
+        return BsonCompoundPrimitive.of(object, type);
     }
 
     public static Object fromCompound(BsonCompoundElement element) {
@@ -32,9 +89,68 @@ public abstract class BsonCompoundElement implements CompoundElement {
         if (element instanceof BsonCompoundArray array)
             return array.getElements();
 
+        if (element instanceof BsonCompoundPrimitive primitive)
+            return primitive.value();
+
         throw new IllegalStateException("Unsupported BsonCompoundElement!");
     }
 
+    /**
+     * Stored representation of a compound given to a mutator, concurrent objects are stored as a deep snapshot.
+     *
+     * @throws IllegalArgumentException if the compound is not backed by BSON.
+     */
+    static Object fromAnyCompound(CompoundElement element) {
+        if (element instanceof ConcurrentBsonCompoundObject object)
+            return object.toDocument();
+
+        Preconditions.checkArgument(element instanceof BsonCompoundElement, "Only BSON backed compounds are supported!");
+        return BsonCompoundElement.fromCompound((BsonCompoundElement) element);
+    }
+
+    /**
+     * Whether the value can be stored as is in a compound's document or list.
+     */
+    static boolean isStorable(Object value) {
+        return value == null || value instanceof String || value instanceof Integer || value instanceof Long
+                || value instanceof Double || value instanceof Boolean || value instanceof Document
+                || value instanceof List<?> || value instanceof Binary || value instanceof Date;
+    }
+
+    /**
+     * Converts a java value to its stored representation, the same one the typed {@code add} methods use.
+     */
+    static Object toStorable(Object value) {
+        if (BsonCompoundElement.isStorable(value))
+            return value;
+
+        if (value instanceof byte[] bytes)
+            return new Binary(bytes);
+
+        if (value instanceof Byte byteValue)
+            return new Binary(new byte[]{byteValue});
+
+        if (value instanceof Character character)
+            return String.valueOf(character);
+
+        if (value instanceof Short shortValue)
+            return shortValue.intValue();
+
+        if (value instanceof Float floatValue)
+            return floatValue.doubleValue();
+
+        if (value instanceof BsonCompoundElement element)
+            return BsonCompoundElement.fromCompound(element);
+
+        if (value instanceof ConcurrentBsonCompoundObject object)
+            return object.toDocument();
+
+        if (value instanceof CompoundElement)
+            throw new IllegalArgumentException("Only BSON backed compounds are supported!");
+
+        throw new IllegalArgumentException("Unsupported compound value: " + value.getClass().getName());
+    }
+
     @Override
     public boolean isArray() {
         return this instanceof BsonCompoundArray;
@@ -136,6 +252,28 @@ public abstract class BsonCompoundElement implements CompoundElement {
         return new UnsupportedOperationException(this.getClass().getName());
     }
 
+    /**
+     * Streams the JSON representation of this compound into the given output.
+     */
+    public abstract void writeJson(@NotNull Appendable out) throws IOException;
+
+    @Override
+    public String toJson() {
+        long start = CompoundMetrics.ENABLED ? System.nanoTime() : 0;
+        StringBuilder builder = new StringBuilder();
+
+        try {
+            this.writeJson(builder);
+        } catch (IOException e) { // Never thrown by a StringBuilder.
+            throw new UncheckedIOException(e);
+        }
+
+        if (CompoundMetrics.ENABLED)
+            CompoundMetrics.jsonWritten(builder.length(), System.nanoTime() - start);
+
+        return builder.toString();
+    }
+
     @Override
     public abstract boolean equals(Object obj);
 
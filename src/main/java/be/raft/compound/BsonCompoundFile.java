@@ -0,0 +1,240 @@
+package be.raft.compound;
+
+import com.google.common.base.Preconditions;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Append-only file of encoded compounds, read back zero-copy through memory mapped slices.
+ * <p>
+ * Records are plain concatenated BSON documents, an in-memory offset index gives constant time access by record index.
+ * Compounds read from the file are raw and only decode the fields that are accessed,
+ * they stay valid after the file is closed.
+ */
+public class BsonCompoundFile implements Closeable, Iterable<BsonCompoundObject> {
+    private static final long SEGMENT_SIZE = 1L << 30; // A single mapping is limited to 2GiB.
+    private static final int LENGTH_PREFIX_SIZE = 4;
+    private static final int MIN_RECORD_SIZE = 5;
+
+    private final FileChannel channel;
+    private final LongArrayList offsets;
+    private final List<MappedByteBuffer> segments;
+    private long end;
+
+    private BsonCompoundFile(FileChannel channel) throws IOException {
+        this.channel = channel;
+        this.offsets = new LongArrayList(16);
+        this.segments = new ArrayList<>();
+        this.end = channel.size();
+
+        this.index();
+    }
+
+    /**
+     * Opens the file, creating it if missing. A final record cut short by an interrupted append is truncated.
+     *
+     * @throws IOException if a record of the file is malformed, the file is then left untouched.
+     */
+    public static BsonCompoundFile open(@NotNull Path path) throws IOException {
+        Preconditions.checkNotNull(path);
+
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            return new BsonCompoundFile(channel);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Appends the compound to the file.
+     *
+     * @return index of the appended record.
+     */
+    public synchronized int append(@NotNull BsonCompoundObject object) throws IOException {
+        Preconditions.checkNotNull(object);
+
+        ByteBuffer bytes = object.isRaw() ? object.raw().buffer() : object.toByteBuffer();
+
+        long offset = this.end;
+        long position = offset;
+        while (bytes.hasRemaining()) {
+            position += this.channel.write(bytes, position);
+        }
+
+        this.end = position;
+        this.offsets.addLong(offset);
+
+        return this.offsets.size() - 1;
+    }
+
+    public synchronized BsonCompoundObject get(int index) throws IOException {
+        return this.read(this.offsets.getLong(index));
+    }
+
+    /**
+     * Reads the record starting at the given byte offset of the file.
+     *
+     * @throws IllegalArgumentException if no valid record starts at the offset.
+     */
+    public synchronized BsonCompoundObject read(long offset) throws IOException {
+        Preconditions.checkArgument(offset >= 0 && offset + MIN_RECORD_SIZE <= this.end, "Offset out of bounds: %s", offset);
+
+        return new BsonCompoundObject(new BsonCompoundRaw(this.slice(offset)));
+    }
+
+    public synchronized long offset(int index) {
+        return this.offsets.getLong(index);
+    }
+
+    public synchronized int size() {
+        return this.offsets.size();
+    }
+
+    /**
+     * Size of the file in bytes.
+     */
+    public synchronized long length() {
+        return this.end;
+    }
+
+    public void force() throws IOException {
+        this.channel.force(false);
+    }
+
+    @NotNull
+    @Override
+    public Iterator<BsonCompoundObject> iterator() {
+        return new Iterator<>() {
+            private int index;
+
+            @Override
+            public boolean hasNext() {
+                return this.index < BsonCompoundFile.this.size();
+            }
+
+            @Override
+            public BsonCompoundObject next() {
+                if (!this.hasNext())
+                    throw new NoSuchElementException();
+
+                try {
+                    return BsonCompoundFile.this.get(this.index++);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        };
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.channel.close();
+    }
+
+    // Rebuilds the offset index. Only a final record cut short by an interrupted append is truncated,
+    // a malformed record anywhere else means the file is corrupt or not a compound file and is left untouched.
+    private void index() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(MIN_RECORD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+        long position = 0;
+        while (position < this.end) {
+            header.clear().limit((int) Math.min(MIN_RECORD_SIZE, this.end - position));
+            this.readFully(header, position);
+
+            if (header.limit() < LENGTH_PREFIX_SIZE) // Length prefix cut short.
+                break;
+
+            int length = header.getInt(0);
+            if (length < MIN_RECORD_SIZE || header.limit() > LENGTH_PREFIX_SIZE && !BsonCompoundFile.isElementType(header.get(LENGTH_PREFIX_SIZE)))
+                throw new IOException("Corrupt record at offset " + position + " of a compound file");
+
+            if (position + length > this.end) // Record cut short, it can only be the last one.
+                break;
+
+            header.clear().limit(1);
+            this.readFully(header, position + length - 1);
+            if (header.get(0) != 0)
+                throw new IOException("Corrupt record at offset " + position + " of a compound file, it is not terminated");
+
+            this.offsets.addLong(position);
+            position += length;
+        }
+
+        if (position != this.end) {
+            this.channel.truncate(position);
+            this.end = position;
+        }
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (this.channel.read(buffer, position + buffer.position()) < 0)
+                throw new IOException("Unexpected end of a compound file at offset " + (position + buffer.position()));
+        }
+    }
+
+    // First byte of a document: the type of its first element, or the terminator of an empty one.
+    private static boolean isElementType(byte type) {
+        return (type >= 0x00 && type <= 0x13) || type == 0x7F || type == (byte) 0xFF;
+    }
+
+    private ByteBuffer slice(long offset) throws IOException {
+        int segmentIndex = (int) (offset / SEGMENT_SIZE);
+        long segmentStart = segmentIndex * SEGMENT_SIZE;
+        int position = (int) (offset - segmentStart);
+
+        MappedByteBuffer segment = this.segment(segmentIndex, offset + LENGTH_PREFIX_SIZE);
+        int length = segment.getInt(position);
+
+        // Checked before mapping the record, a mapping past the end of the file would grow it.
+        Preconditions.checkArgument(length >= MIN_RECORD_SIZE && offset + length <= this.end,
+                "No record starts at offset %s, invalid length: %s", offset, length);
+
+        if (offset + length > segmentStart + segment.capacity())
+            segment = this.segment(segmentIndex, offset + length);
+
+        ByteBuffer record;
+        if (offset + length > segmentStart + segment.capacity()) // Record crossing a segment boundary, mapped on its own.
+            record = this.channel.map(FileChannel.MapMode.READ_ONLY, offset, length).order(ByteOrder.LITTLE_ENDIAN);
+        else
+            record = segment.slice(position, length).order(ByteOrder.LITTLE_ENDIAN);
+
+        Preconditions.checkArgument(record.get(length - 1) == 0, "No record starts at offset %s, it is not terminated", offset);
+        return record;
+    }
+
+    // Segments overlap by a length prefix and are remapped once records are appended past their end.
+    private MappedByteBuffer segment(int index, long requiredEnd) throws IOException {
+        while (this.segments.size() <= index) {
+            this.segments.add(null);
+        }
+
+        long start = index * SEGMENT_SIZE;
+        long size = Math.min(SEGMENT_SIZE + LENGTH_PREFIX_SIZE, this.end - start);
+
+        MappedByteBuffer segment = this.segments.get(index);
+        if (segment != null && (start + segment.capacity() >= requiredEnd || segment.capacity() == size))
+            return segment;
+
+        segment = this.channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+        segment.order(ByteOrder.LITTLE_ENDIAN);
+
+        this.segments.set(index, segment);
+        return segment;
+    }
+}
@@ -0,0 +1,55 @@
+package be.raft.compound;
+
+import org.bson.BsonBinaryWriter;
+import org.bson.Document;
+import org.bson.io.BasicOutputBuffer;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * Encodings of a frozen compound, computed once on first use.
+ */
+final class BsonCompoundFrozen {
+    private volatile byte[] bson;
+    private volatile String json;
+
+    byte[] bson(Document document) {
+        byte[] bson = this.bson;
+        if (bson == null) {
+            try (BasicOutputBuffer buffer = new BasicOutputBuffer(); BsonBinaryWriter writer = new BsonBinaryWriter(buffer)) {
+                BsonCompoundCodec.DEFAULT.writeDocument(writer, document);
+                bson = buffer.toByteArray();
+            }
+
+            this.bson = bson;
+        }
+
+        return bson;
+    }
+
+    /**
+     * Sets the BSON encoding when it is already known, such as the bytes the compound was decoded from.
+     */
+    void seed(byte[] bson) {
+        this.bson = bson;
+    }
+
+    String json(Object storage) {
+        String json = this.json;
+        if (json == null) {
+            StringBuilder builder = new StringBuilder();
+
+            try {
+                BsonCompoundJsonWriter.writeValue(storage, builder);
+            } catch (IOException e) { // Never thrown by a StringBuilder.
+                throw new UncheckedIOException(e);
+            }
+
+            json = builder.toString();
+            this.json = json;
+        }
+
+        return json;
+    }
+}
@@ -0,0 +1,84 @@
+package be.raft.compound;
+
+import org.bson.Document;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Hash codes of the containers of a compound tree, cached per subtree.
+ * <p>
+ * Hashes follow the {@link Map#hashCode()} and {@link List#hashCode()} contracts so they match the uncached ones.
+ * A write only invalidates the written container and its ancestors, untouched subtrees keep their hash.
+ * <p>
+ * Containers removed or replaced in the tree are not invalidated, the cache is cleared instead
+ * once it holds twice the containers it held after its last rebuild.
+ */
+final class BsonCompoundHashCache {
+    private static final int MIN_LIMIT = 64;
+
+    private final Map<Object, Integer> hashes = new IdentityHashMap<>();
+    private int limit = MIN_LIMIT;
+
+    int hash(Object value) {
+        if (this.hashes.size() > this.limit)
+            this.hashes.clear();
+
+        boolean rebuilt = this.hashes.isEmpty();
+        int hash = this.cache(value);
+
+        if (rebuilt)
+            this.limit = Math.max(MIN_LIMIT, 2 * this.hashes.size());
+
+        return hash;
+    }
+
+    private int cache(Object value) {
+        if (!BsonCompoundTree.isContainer(value))
+            return Objects.hashCode(value);
+
+        Integer cached = this.hashes.get(value);
+        if (cached != null)
+            return cached;
+
+        int hash = this.compute(value);
+        this.hashes.put(value, hash);
+
+        return hash;
+    }
+
+    /**
+     * Cached hash of the container, if any.
+     */
+    Integer cached(Object container) {
+        return this.hashes.get(container);
+    }
+
+    void invalidate(Object container) {
+        this.hashes.remove(container);
+    }
+
+    private int compute(Object container) {
+        if (container instanceof Document document) {
+            int hash = 0;
+            for (Map.Entry<String, Object> entry : document.entrySet()) {
+                hash += Objects.hashCode(entry.getKey()) ^ this.cache(entry.getValue());
+            }
+
+            return hash;
+        }
+
+        List<?> list = (List<?>) container;
+        if (BsonCompoundTree.isPacked(list))
+            return list.hashCode();
+
+        int hash = 1;
+        for (Object element : list) {
+            hash = 31 * hash + this.cache(element);
+        }
+
+        return hash;
+    }
+}
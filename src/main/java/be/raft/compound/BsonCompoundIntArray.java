@@ -0,0 +1,72 @@
+package be.raft.compound;
+
+import com.google.common.base.Preconditions;
+import fr.atlasworld.common.compound.CompoundArray;
+import fr.atlasworld.common.compound.CompoundElement;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Compound array storing {@code int} values unboxed in a growable {@code int[]}.
+ * <p>
+ * Adding anything other than a {@code int} throws an {@link IllegalArgumentException}.
+ */
+public class BsonCompoundIntArray extends BsonCompoundArray {
+    BsonCompoundIntArray(@NotNull IntArrayList values) {
+        super(values, false);
+    }
+
+    public BsonCompoundIntArray(int capacity) {
+        this(new IntArrayList(capacity));
+    }
+
+    public BsonCompoundIntArray(@NotNull int[] values) {
+        this(new IntArrayList(Preconditions.checkNotNull(values)));
+    }
+
+    public BsonCompoundIntArray() {
+        this(10);
+    }
+
+    @Override
+    public CompoundArray add(int value) {
+        this.mutableValues().addInt(value);
+
+        return this;
+    }
+
+    @Override
+    public BsonCompoundIntArray addAll(@NotNull int[] values) {
+        Preconditions.checkNotNull(values);
+
+        this.mutableValues().addAll(values, 0, values.length);
+        return this;
+    }
+
+    @Override
+    public CompoundElement set(int index, int value) {
+        this.mutableValues().setInt(index, value);
+
+        return this;
+    }
+
+    public int getInt(int index) {
+        return this.values().getInt(index);
+    }
+
+    public int[] toIntArray() {
+        return this.values().toIntArray();
+    }
+
+    @Override
+    public BsonCompoundIntArray clone() {
+        return (BsonCompoundIntArray) super.clone();
+    }
+
+    private IntArrayList values() {
+        return (IntArrayList) this.elements();
+    }
+
+    private IntArrayList mutableValues() {
+        return (IntArrayList) this.mutableElements();
+    }
+}
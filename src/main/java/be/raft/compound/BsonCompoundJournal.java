@@ -0,0 +1,103 @@
+package be.raft.compound;
+
+import org.bson.Document;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Paths written to since the changes of a compound tree were last drained.
+ * <p>
+ * Paths are kept in a trie, a dirty path covers everything below it so only the topmost written paths are kept.
+ * Containers handed out to callers may be mutated without going through the tree, their paths are pinned dirty.
+ */
+final class BsonCompoundJournal {
+    private final List<String[]> pinned = new ArrayList<>();
+    private Node root = new Node();
+    private Set<String> rootKeys; // Keys of the root when last drained, only set once the root itself escaped.
+
+    void record(String[] path) {
+        Node node = this.root;
+        for (String segment : path) {
+            if (node.dirty)
+                return;
+
+            if (node.children == null)
+                node.children = new LinkedHashMap<>();
+
+            node = node.children.computeIfAbsent(segment, key -> new Node());
+        }
+
+        node.dirty = true;
+        node.children = null;
+    }
+
+    void pin(String[] path, Document root) {
+        if (path.length != 0) {
+            this.pinned.add(path);
+            this.record(path);
+            return;
+        }
+
+        if (this.rootKeys == null) // Fields removed from the escaped root later on must still be unset.
+            this.rootKeys = new LinkedHashSet<>(root.keySet());
+    }
+
+    boolean isEmpty() {
+        return this.root.children == null && this.pinned.isEmpty() && this.rootKeys == null;
+    }
+
+    /**
+     * Topmost dirty paths, the journal is reset.
+     */
+    List<String[]> drain(Document root) {
+        for (String[] path : this.pinned) {
+            this.record(path);
+        }
+
+        if (this.rootKeys != null) {
+            for (String key : this.rootKeys) {
+                this.record(new String[]{key});
+            }
+
+            for (String key : root.keySet()) {
+                this.record(new String[]{key});
+            }
+
+            this.rootKeys = new LinkedHashSet<>(root.keySet());
+        }
+
+        List<String[]> paths = new ArrayList<>();
+        this.root.collect(new String[0], paths);
+        this.root = new Node();
+
+        return paths;
+    }
+
+    private static final class Node {
+        private Map<String, Node> children;
+        private boolean dirty;
+
+        private void collect(String[] path, List<String[]> paths) {
+            if (this.dirty) {
+                paths.add(path);
+                return;
+            }
+
+            if (this.children == null)
+                return;
+
+            for (Map.Entry<String, Node> entry : this.children.entrySet()) {
+                String[] child = Arrays.copyOf(path, path.length + 1);
+                child[path.length] = entry.getKey();
+
+                entry.getValue().collect(child, paths);
+            }
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package be.raft.compound;
+
+import com.google.common.base.Preconditions;
+import com.google.common.io.CharSource;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.MalformedJsonException;
+import org.bson.Document;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Streaming JSON parser building the compound storage directly, no intermediate tree is built.
+ * <p>
+ * Integral numbers are stored as int when they fit, long otherwise, and other numbers as double.
+ * Output of {@link BsonCompoundObject#toJson()} is read back, binaries and dates come back as the base64 strings
+ * and millis they are written as, non-finite doubles come back as nulls.
+ */
+public final class BsonCompoundJson {
+    private BsonCompoundJson() {
+    }
+
+    /**
+     * Parses a JSON object from the reader, the reader is not closed.
+     *
+     * @throws MalformedJsonException if the content is not valid JSON.
+     * @throws IllegalStateException if the content is not a single JSON object.
+     */
+    public static BsonCompoundObject parse(@NotNull Reader reader) throws IOException {
+        Preconditions.checkNotNull(reader);
+
+        JsonReader json = new JsonReader(reader);
+
+        Document document = BsonCompoundJson.readObject(json);
+        Preconditions.checkState(json.peek() == JsonToken.END_DOCUMENT, "Unexpected content after the JSON object: %s", json.peek());
+
+        return BsonCompoundObject.owned(document);
+    }
+
+    /**
+     * Parses a JSON object from the characters.
+     *
+     * @throws IllegalArgumentException if the content is not valid JSON.
+     */
+    public static BsonCompoundObject parse(@NotNull CharSequence json) {
+        Preconditions.checkNotNull(json);
+
+        try (Reader reader = CharSource.wrap(json).openStream()) {
+            return BsonCompoundJson.parse(reader);
+        } catch (MalformedJsonException e) {
+            throw new IllegalArgumentException("Invalid JSON: " + e.getMessage(), e);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Parses a JSON object from the UTF-8 encoded remaining bytes of the buffer, the buffer position is left untouched.
+     *
+     * @throws IllegalArgumentException if the content is not valid JSON.
+     */
+    public static BsonCompoundObject parse(@NotNull ByteBuffer buffer) {
+        Preconditions.checkNotNull(buffer);
+
+        try (Reader reader = new InputStreamReader(new BufferInput(buffer.duplicate()), StandardCharsets.UTF_8)) {
+            return BsonCompoundJson.parse(reader);
+        } catch (MalformedJsonException e) {
+            throw new IllegalArgumentException("Invalid JSON: " + e.getMessage(), e);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static Document readObject(JsonReader json) throws IOException {
+        Document document = new Document();
+
+        json.beginObject();
+        while (json.hasNext()) {
+            String key = json.nextName();
+            document.put(key, BsonCompoundJson.readValue(json));
+        }
+        json.endObject();
+
+        return document;
+    }
+
+    private static List<Object> readArray(JsonReader json) throws IOException {
+        List<Object> elements = new ArrayList<>();
+
+        json.beginArray();
+        while (json.hasNext()) {
+            elements.add(BsonCompoundJson.readValue(json));
+        }
+        json.endArray();
+
+        return elements;
+    }
+
+    private static Object readValue(JsonReader json) throws IOException {
+        return switch (json.peek()) {
+            case BEGIN_OBJECT -> BsonCompoundJson.readObject(json);
+            case BEGIN_ARRAY -> BsonCompoundJson.readArray(json);
+            case STRING -> json.nextString();
+            case NUMBER -> BsonCompoundJson.readNumber(json.nextString());
+            case BOOLEAN -> json.nextBoolean();
+            case NULL -> {
+                json.nextNull();
+                yield null;
+            }
+            default -> throw new MalformedJsonException("Unexpected token " + json.peek() + " at " + json.getPath());
+        };
+    }
+
+    private static Object readNumber(String literal) {
+        if (!BsonCompoundJson.isIntegral(literal))
+            return Double.parseDouble(literal);
+
+        try {
+            long value = Long.parseLong(literal);
+            return value == (int) value ? (Object) (int) value : (Object) value;
+        } catch (NumberFormatException e) { // Larger than a long.
+            return Double.parseDouble(literal);
+        }
+    }
+
+    private static boolean isIntegral(String literal) {
+        for (int i = 0; i < literal.length(); i++) {
+            char c = literal.charAt(i);
+            if ((c < '0' || c > '9') && !(i == 0 && c == '-'))
+                return false;
+        }
+
+        return !literal.isEmpty();
+    }
+
+    // Reads the buffer without copying it to an array first.
+    private static final class BufferInput extends InputStream {
+        private final ByteBuffer buffer;
+
+        private BufferInput(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return this.buffer.hasRemaining() ? this.buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if (!this.buffer.hasRemaining())
+                return -1;
+
+            int count = Math.min(length, this.buffer.remaining());
+            this.buffer.get(bytes, offset, count);
+
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return this.buffer.remaining();
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package be.raft.compound;
+
+import org.bson.types.Binary;
+
+import java.io.IOException;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Map;
+
+/**
+ * Single pass JSON emitter over the compound storage, writes straight into the target without building a tree.
+ */
+final class BsonCompoundJsonWriter {
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private BsonCompoundJsonWriter() {
+    }
+
+    static void writeValue(Object value, Appendable out) throws IOException {
+        if (value == null) {
+            out.append("null");
+        } else if (value instanceof String string) {
+            BsonCompoundJsonWriter.writeString(string, out);
+        } else if (value instanceof Double doubleValue) {
+            BsonCompoundJsonWriter.writeDouble(doubleValue, out);
+        } else if (value instanceof Integer || value instanceof Long || value instanceof Boolean) {
+            out.append(value.toString());
+        } else if (value instanceof ConcurrentBsonCompoundObject object) {
+            BsonCompoundJsonWriter.writeObject(object.ordered(), out);
+        } else if (value instanceof Map<?, ?> map) {
+            BsonCompoundJsonWriter.writeObject(map, out);
+        } else if (value instanceof Collection<?> collection) {
+            BsonCompoundJsonWriter.writeArray(collection, out);
+        } else if (value instanceof Binary binary) {
+            out.append('"').append(Base64.getEncoder().encodeToString(binary.getData())).append('"');
+        } else if (value instanceof Date date) {
+            out.append(Long.toString(date.getTime()));
+        } else {
+            BsonCompoundJsonWriter.writeString(value.toString(), out);
+        }
+    }
+
+    static void writeObject(Map<?, ?> map, Appendable out) throws IOException {
+        out.append('{');
+
+        boolean first = true;
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+            if (!first)
+                out.append(',');
+
+            first = false;
+            BsonCompoundJsonWriter.writeString(String.valueOf(entry.getKey()), out);
+            out.append(':');
+            BsonCompoundJsonWriter.writeValue(entry.getValue(), out);
+        }
+
+        out.append('}');
+    }
+
+    static void writeArray(Collection<?> elements, Appendable out) throws IOException {
+        out.append('[');
+
+        boolean first = true;
+        for (Object element : elements) {
+            if (!first)
+                out.append(',');
+
+            first = false;
+            BsonCompoundJsonWriter.writeValue(element, out);
+        }
+
+        out.append(']');
+    }
+
+    // NaN and infinities have no JSON representation, they are written as null like JavaScript does.
+    static void writeDouble(double value, Appendable out) throws IOException {
+        out.append(Double.isFinite(value) ? Double.toString(value) : "null");
+    }
+
+    static void writeString(String string, Appendable out) throws IOException {
+        out.append('"');
+
+        int start = 0;
+        int length = string.length();
+        for (int i = 0; i < length; i++) {
+            char c = string.charAt(i);
+            String escape = BsonCompoundJsonWriter.escape(c);
+            if (escape == null)
+                continue;
+
+            out.append(string, start, i);
+            if (escape.isEmpty()) // Control character without a short escape sequence.
+                out.append("\\u00").append(HEX[c >> 4]).append(HEX[c & 0xF]);
+            else
+                out.append(escape);
+
+            start = i + 1;
+        }
+
+        out.append(string, start, length);
+        out.append('"');
+    }
+
+    private static String escape(char c) {
+        return switch (c) {
+            case '"' -> "\\\"";
+            case '\\' -> "\\\\";
+            case '\n' -> "\\n";
+            case '\r' -> "\\r";
+            case '\t' -> "\\t";
+            case '\b' -> "\\b";
+            case '\f' -> "\\f";
+            case '\u2028' -> "\\u2028";
+            case '\u2029' -> "\\u2029";
+            default -> c < 0x20 ? "" : null;
+        };
+    }
+}
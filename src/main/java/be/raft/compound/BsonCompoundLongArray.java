@@ -0,0 +1,72 @@
+package be.raft.compound;
+
+import com.google.common.base.Preconditions;
+import fr.atlasworld.common.compound.CompoundArray;
+import fr.atlasworld.common.compound.CompoundElement;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Compound array storing {@code long} values unboxed in a growable {@code long[]}.
+ * <p>
+ * Adding anything other than a {@code long} throws an {@link IllegalArgumentException}.
+ */
+public class BsonCompoundLongArray extends BsonCompoundArray {
+    BsonCompoundLongArray(@NotNull LongArrayList values) {
+        super(values, false);
+    }
+
+    public BsonCompoundLongArray(int capacity) {
+        this(new LongArrayList(capacity));
+    }
+
+    public BsonCompoundLongArray(@NotNull long[] values) {
+        this(new LongArrayList(Preconditions.checkNotNull(values)));
+    }
+
+    public BsonCompoundLongArray() {
+        this(10);
+    }
+
+    @Override
+    public CompoundArray add(long value) {
+        this.mutableValues().addLong(value);
+
+        return this;
+    }
+
+    @Override
+    public BsonCompoundLongArray addAll(@NotNull long[] values) {
+        Preconditions.checkNotNull(values);
+
+        this.mutableValues().addAll(values, 0, values.length);
+        return this;
+    }
+
+    @Override
+    public CompoundElement set(int index, long value) {
+        this.mutableValues().setLong(index, value);
+
+        return this;
+    }
+
+    public long getLong(int index) {
+        return this.values().getLong(index);
+    }
+
+    public long[] toLongArray() {
+        return this.values().toLongArray();
+    }
+
+    @Override
+    public BsonCompoundLongArray clone() {
+        return (BsonCompoundLongArray) super.clone();
+    }
+
+    private LongArrayList values() {
+        return (LongArrayList) this.elements();
+    }
+
+    private LongArrayList mutableValues() {
+        return (LongArrayList) this.mutableElements();
+    }
+}
@@ -1,6 +1,9 @@
 package be.raft.compound;
 
 import fr.atlasworld.common.compound.CompoundNull;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
 
 public class BsonCompoundNull extends BsonCompoundElement implements CompoundNull {
     public static final BsonCompoundNull NULL = new BsonCompoundNull();
@@ -18,7 +21,12 @@ public class BsonCompoundNull extends BsonCompoundElement implements CompoundNul
 
     @Override
     public int hashCode() {
-        return this.toString().hashCode();
+        return 0;
+    }
+
+    @Override
+    public void writeJson(@NotNull Appendable out) throws IOException {
+        out.append("null");
     }
 
     @Override
@@ -1,40 +1,178 @@
 package be.raft.compound;
 
 import com.google.common.base.Preconditions;
-import com.google.gson.JsonObject;
 import fr.atlasworld.common.compound.CompoundArray;
 import fr.atlasworld.common.compound.CompoundElement;
 import fr.atlasworld.common.compound.CompoundObject;
 import fr.atlasworld.common.compound.CompoundPrimitive;
 import org.bson.Document;
+import org.bson.RawBsonDocument;
 import org.bson.types.Binary;
 import org.jetbrains.annotations.NotNull;
 
-import java.util.HashMap;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.function.Consumer;
-import java.util.stream.Collectors;
 
-public class BsonCompoundObject extends BsonCompoundElement implements CompoundObject {
-    private final Document document;
+public class BsonCompoundObject extends BsonCompoundContainer implements CompoundObject {
+    private Document document;
+    private BsonCompoundRaw raw;
 
+    /**
+     * Creates a compound over the document, the caller may keep writing to it.
+     */
     public BsonCompoundObject(@NotNull Document document) {
+        this(document, true);
+    }
+
+    private BsonCompoundObject(Document document, boolean escaped) {
         Preconditions.checkNotNull(document);
 
         this.document = document;
+        if (escaped) // Hashes are not cached, they would go stale.
+            this.escape();
+    }
+
+    /**
+     * Compound over a document not referenced anywhere else, such as a decoded one.
+     */
+    static BsonCompoundObject owned(@NotNull Document document) {
+        return new BsonCompoundObject(document, false);
+    }
+
+    /**
+     * Creates a compound reading its fields straight from the raw BSON bytes.
+     * <p>
+     * {@link #get(String)}, {@link #has(String)} and {@link #size()} walk the raw bytes,
+     * the document is only decoded once the compound is mutated or read as a whole.
+     * Objects and arrays read from it are decoded copies, writing to one decodes the document and stores the copy in it.
+     */
+    public BsonCompoundObject(@NotNull RawBsonDocument raw) {
+        this(Preconditions.checkNotNull(raw).getByteBuffer().asNIO());
+    }
+
+    /**
+     * Creates a raw compound over the document starting at the buffer's position, the buffer is not copied.
+     */
+    public BsonCompoundObject(@NotNull ByteBuffer buffer) {
+        this(new BsonCompoundRaw(buffer));
+    }
+
+    BsonCompoundObject(@NotNull BsonCompoundRaw raw) {
+        Preconditions.checkNotNull(raw);
+
+        this.raw = raw;
+    }
+
+    /**
+     * Creates a compound holding the given values, the document is sized for them upfront.
+     */
+    public BsonCompoundObject(@NotNull Map<String, ?> values) {
+        this(BsonCompoundObject.toDocument(values), false);
+
+        this.escapeContainers(values);
     }
 
     public BsonCompoundObject() {
-        this(new Document());
+        this(new Document(), false);
+    }
+
+    /**
+     * Creates an empty compound in shape mode.
+     * <p>
+     * Objects receiving the same keys in the same order share one key table and store their values in an array,
+     * lookups are an index into it. An object falls back to a map once its keys diverge from the shared ones.
+     * Objects added through {@link #addObject(String, Consumer)} are shaped as well.
+     */
+    public static BsonCompoundObject shaped() {
+        return BsonCompoundObject.owned(new BsonCompoundShapedDocument());
+    }
+
+    private static Document toDocument(Map<String, ?> values) {
+        Preconditions.checkNotNull(values);
+
+        if (BsonCompoundObject.isStorable(values))
+            return new Document(values);
+
+        Document document = new Document();
+        BsonCompoundObject.putConverted(document, values);
+
+        return document;
+    }
+
+    private static boolean isStorable(Map<String, ?> values) {
+        for (Map.Entry<String, ?> entry : values.entrySet()) {
+            if (entry.getKey() == null || !BsonCompoundElement.isStorable(entry.getValue()))
+                return false;
+        }
+
+        return true;
+    }
+
+    // Containers given by the caller may still be mutated by it.
+    private void escapeContainers(Map<String, ?> values) {
+        for (Object value : values.values()) {
+            if (BsonCompoundTree.isContainer(value) || value instanceof BsonCompoundContainer) {
+                this.escape();
+                return;
+            }
+        }
+    }
+
+    private static void putConverted(Document document, Map<String, ?> values) {
+        for (Map.Entry<String, ?> entry : values.entrySet()) {
+            String key = Preconditions.checkNotNull(entry.getKey());
+            document.put(key, BsonCompoundElement.toStorable(entry.getValue()));
+        }
+    }
+
+    @Override
+    Object storage() {
+        if (this.raw != null) { // Copy-on-write: decode the raw bytes once the whole document is needed.
+            this.document = this.raw.decode();
+            this.raw = null;
+        }
+
+        return this.document;
+    }
+
+    @Override
+    void storage(Object storage) {
+        this.document = (Document) storage;
+    }
+
+    Document document() {
+        return (Document) this.readStorage();
+    }
+
+    private Document mutableDocument() {
+        return (Document) this.mutableStorage();
+    }
+
+    private Document mutableDocument(String key) {
+        return (Document) this.mutableStorage(key);
+    }
+
+    public boolean isRaw() {
+        return this.raw != null;
+    }
+
+    BsonCompoundRaw raw() {
+        return this.raw;
     }
 
     @Override
     public CompoundElement remove(@NotNull String key) {
         Preconditions.checkNotNull(key);
 
-        Object object = this.document.remove(key);
-        return BsonCompoundElement.toCompound(object);
+        Object object = this.mutableDocument(key).remove(key);
+        return BsonCompoundElement.toOwnedCompound(object);
     }
 
     @Override
@@ -42,10 +180,13 @@ public class BsonCompoundObject extends BsonCompoundElement implements CompoundO
         Preconditions.checkNotNull(key);
         Preconditions.checkNotNull(builder);
 
-        BsonCompoundObject object = new BsonCompoundObject();
-        builder.accept(object);
+        BsonCompoundObject object = this.document instanceof BsonCompoundShapedDocument ? BsonCompoundObject.shaped() : BsonCompoundObject.owned(this.newDocument());
+        builder.accept(this.pooled(object));
+
+        Document document = object.getDocument();
+        this.adopt(document);
 
-        this.document.put(key, object.getDocument());
+        this.mutableDocument(key).put(key, document);
         return this;
     }
 
@@ -54,10 +195,13 @@ public class BsonCompoundObject extends BsonCompoundElement implements CompoundO
         Preconditions.checkNotNull(key);
         Preconditions.checkNotNull(builder);
 
-        BsonCompoundArray array = new BsonCompoundArray();
-        builder.accept(array);
+        BsonCompoundArray array = BsonCompoundArray.owned(this.newList());
+        builder.accept(this.pooled(array));
+
+        List<Object> elements = array.getElements();
+        this.adopt(elements);
 
-        this.document.put(key, array.getElements());
+        this.mutableDocument(key).put(key, elements);
         return this;
     }
 
@@ -65,9 +209,12 @@ public class BsonCompoundObject extends BsonCompoundElement implements CompoundO
     public CompoundObject add(@NotNull String key, @NotNull CompoundElement value) {
         Preconditions.checkNotNull(key);
         Preconditions.checkNotNull(value);
-        Preconditions.checkArgument(value instanceof BsonCompoundElement, "Only BSON backed compounds are supported!");
 
-        this.document.put(key, BsonCompoundElement.fromCompound((BsonCompoundElement) value));
+        Object stored = BsonCompoundElement.fromAnyCompound(value);
+        if (value instanceof BsonCompoundElement) // Snapshots of concurrent objects are not referenced anywhere else.
+            this.escapeIfContainer(stored);
+
+        this.mutableDocument(key).put(key, stored);
         return this;
     }
 
@@ -75,7 +222,7 @@ public class BsonCompoundObject extends BsonCompoundElement implements CompoundO
     public CompoundObject add(@NotNull String key, boolean value) {
         Preconditions.checkNotNull(key);
 
-        this.document.put(key, value);
+        this.mutableDocument(key).put(key, value);
         return this;
     }
 
@@ -83,7 +230,7 @@ public class BsonCompoundObject extends BsonCompoundElement implements CompoundO
     public CompoundObject add(@NotNull String key, double value) {
         Preconditions.checkNotNull(key);
 
-        this.document.put(key, value);
+        this.mutableDocument(key).put(key, value);
         return this;
     }
 
@@ -91,7 +238,7 @@ public class BsonCompoundObject extends BsonCompoundElement implements CompoundO
     public CompoundObject add(@NotNull String key, long value) {
         Preconditions.checkNotNull(key);
 
-        this.document.put(key, value);
+        this.mutableDocument(key).put(key, value);
         return this;
     }
 
@@ -99,7 +246,7 @@ public class BsonCompoundObject extends BsonCompoundElement implements CompoundO
     public CompoundObject add(@NotNull String key, int value) {
         Preconditions.checkNotNull(key);
 
-        this.document.put(key, value);
+        this.mutableDocument(key).put(key, value);
         return this;
     }
 
@@ -109,7 +256,7 @@ public class BsonCompoundObject extends BsonCompoundElement implements CompoundO
 
         Binary binary = new Binary(new byte[]{value});
 
-        this.document.put(key, binary);
+        this.mutableDocument(key).put(key, binary);
         return this;
     }
 
@@ -120,7 +267,7 @@ public class BsonCompoundObject extends BsonCompoundElement implements CompoundO
 
         Binary binary = new Binary(value);
 
-        this.document.put(key, binary);
+        this.mutableDocument(key).put(key, binary);
         return this;
     }
 
@@ -128,7 +275,7 @@ public class BsonCompoundObject extends BsonCompoundElement implements CompoundO
     public CompoundObject add(@NotNull String key, char value) {
         Preconditions.checkNotNull(key);
 
-        this.document.put(key, String.valueOf(value));
+        this.mutableDocument(key).put(key, String.valueOf(value));
         return this;
     }
 
@@ -137,37 +284,162 @@ public class BsonCompoundObject extends BsonCompoundElement implements CompoundO
         Preconditions.checkNotNull(key);
         Preconditions.checkNotNull(value);
 
-        this.document.put(key, value);
+        this.mutableDocument(key).put(key, value);
+        return this;
+    }
+
+    /**
+     * Adds all the values at once, values are converted like the typed {@code add} methods do.
+     */
+    public BsonCompoundObject putAll(@NotNull Map<String, ?> values) {
+        Preconditions.checkNotNull(values);
+
+        this.escapeContainers(values);
+
+        if (this.isTracking()) {
+            for (String key : values.keySet()) {
+                this.mutableStorage(key);
+            }
+        }
+
+        Document document = this.mutableDocument();
+        if (BsonCompoundObject.isStorable(values)) // Single resize of the document for the whole batch.
+            document.putAll(values);
+        else
+            BsonCompoundObject.putConverted(document, values);
+
+        return this;
+    }
+
+    /**
+     * Removes all the fields, the document keeps its capacity.
+     */
+    public BsonCompoundObject clear() {
+        if (this.isTracking()) {
+            for (String key : this.document().keySet()) {
+                this.mutableStorage(key);
+            }
+        }
+
+        this.mutableDocument().clear();
+        return this;
+    }
+
+    /**
+     * Clears this compound and forgets its change tracking and clone sharing, as if it was just created.
+     * Only compounds which are not read from another one can be reset.
+     * <p>
+     * A document handed out through {@link #getDocument()} is left untouched, the compound continues with a new one.
+     */
+    public BsonCompoundObject reset() {
+        if (this.raw != null && !this.isFrozen()) { // Nothing to keep, the bytes are dropped without being decoded.
+            this.raw = null;
+            this.document = new Document();
+        }
+
+        if (this.isEscaped()) { // The caller may still write to the document, it must not be reused.
+            Document document = this.document instanceof BsonCompoundShapedDocument ? new BsonCompoundShapedDocument() : this.newDocument();
+            this.resetRoot();
+
+            this.document = document;
+            return this;
+        }
+
+        Document document = this.mutableDocument(); // Copied first if still shared with a clone.
+        this.resetRoot();
+
+        document.clear();
+        return this;
+    }
+
+    /**
+     * Starts recording the paths written to in this compound's tree, nested objects and arrays included.
+     * <p>
+     * Documents and lists obtained through {@link #getDocument()} / {@link CompoundArray#getElements()} are considered changed on every drain.
+     */
+    public BsonCompoundObject trackChanges() {
+        this.startTracking();
         return this;
     }
 
+    public boolean isTrackingChanges() {
+        return this.isTracking();
+    }
+
+    public boolean hasChanges() {
+        return this.hasTrackedChanges();
+    }
+
+    /**
+     * Changes made since tracking started or since the last drain, relative to the root of the tree.
+     * Use {@link CompoundDiff#toUpdate()} for a MongoDB update document or {@link CompoundDiff#toCompound()} for a replay log.
+     *
+     * @throws IllegalStateException if changes are not tracked.
+     */
+    public CompoundDiff drainChanges() {
+        return this.drainTrackedChanges();
+    }
+
     @Override
     public Set<Map.Entry<String, CompoundElement>> entrySet() {
-        return this.document.entrySet().stream()
-                .map(entry -> Map.entry(entry.getKey(), (CompoundElement) BsonCompoundElement.toCompound(entry.getValue())))
-                .collect(Collectors.toSet());
+        return new AbstractSet<>() { // Read-only view, entries are wrapped while iterating.
+            @Override
+            public Iterator<Map.Entry<String, CompoundElement>> iterator() {
+                Iterator<Map.Entry<String, Object>> iterator = BsonCompoundObject.this.document().entrySet().iterator();
+
+                return new Iterator<>() {
+                    @Override
+                    public boolean hasNext() {
+                        return iterator.hasNext();
+                    }
+
+                    @Override
+                    public Map.Entry<String, CompoundElement> next() {
+                        Map.Entry<String, Object> entry = iterator.next();
+                        return Map.entry(entry.getKey(), BsonCompoundObject.this.wrap(entry.getValue(), entry.getKey()));
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return BsonCompoundObject.this.size();
+            }
+        };
     }
 
     @Override
     public int size() {
-        return this.document.size();
+        if (this.raw != null)
+            return this.raw.size();
+
+        return this.document().size();
     }
 
      @Override
     public boolean isEmpty() {
-        return this.document.isEmpty();
+        if (this.raw != null)
+            return this.raw.isEmpty();
+
+        return this.document().isEmpty();
     }
 
     @Override
     public boolean has(@NotNull String key) {
-        return this.document.containsKey(key);
+        if (this.raw != null)
+            return this.raw.has(key);
+
+        return this.document().containsKey(key);
     }
 
     @Override
     public CompoundElement get(@NotNull String key) {
         Preconditions.checkNotNull(key);
 
-        return BsonCompoundElement.toCompound(this.document.get(key));
+        if (this.raw != null)
+            return this.wrapDetached(this.raw.get(key), key);
+
+        return this.wrap(this.document().get(key), key);
     }
 
     @Override
@@ -187,47 +459,123 @@ public class BsonCompoundObject extends BsonCompoundElement implements CompoundO
 
     @Override
     public Map<String, CompoundElement> asMap() {
-        Map<String, CompoundElement> map = new HashMap<>();
-        this.document.forEach((key, value) -> {
-            map.put(key, BsonCompoundElement.toCompound(value));
-        });
+        return new AbstractMap<>() { // Read-only view over the document.
+            @Override
+            public Set<Entry<String, CompoundElement>> entrySet() {
+                return BsonCompoundObject.this.entrySet();
+            }
+
+            @Override
+            public CompoundElement get(Object key) {
+                if (!(key instanceof String string) || !BsonCompoundObject.this.has(string))
+                    return null;
+
+                return BsonCompoundObject.this.get(string);
+            }
+
+            @Override
+            public boolean containsKey(Object key) {
+                return key instanceof String string && BsonCompoundObject.this.has(string);
+            }
+
+            @Override
+            public int size() {
+                return BsonCompoundObject.this.size();
+            }
+        };
+    }
+
+    /**
+     * Immutable deep snapshot of this compound, its encodings and hash are computed once.
+     * Mutators of the snapshot, and of the compounds read from it, throw {@link UnsupportedOperationException}.
+     */
+    public BsonCompoundObject freeze() {
+        if (this.frozen() != null)
+            return this;
+
+        BsonCompoundObject frozen = BsonCompoundObject.owned((Document) BsonCompoundTree.deepCopy(this.document()));
+        frozen.freezeRoot();
 
-        return map;
+        return frozen;
+    }
+
+    public boolean isFrozen() {
+        return this.isFrozenTree();
+    }
+
+    /**
+     * BSON encoding of this compound, frozen compounds return a read-only view of their cached encoding.
+     */
+    public ByteBuffer toByteBuffer() {
+        BsonCompoundFrozen frozen = this.frozen();
+        if (frozen != null)
+            return ByteBuffer.wrap(frozen.bson(this.document())).asReadOnlyBuffer();
+
+        return ByteBuffer.wrap(BsonCompoundCodec.DEFAULT.encode(this));
+    }
+
+    /**
+     * Cached encoding of a frozen compound, {@code null} otherwise. Must not be modified.
+     */
+    byte[] frozenBson() {
+        BsonCompoundFrozen frozen = this.frozen();
+        return frozen == null ? null : frozen.bson(this.document());
     }
 
     @Override
-    public String toJson() {
-        JsonObject object = new JsonObject();
+    public void writeJson(@NotNull Appendable out) throws IOException {
+        BsonCompoundFrozen frozen = this.frozen();
+        if (frozen != null) {
+            out.append(frozen.json(this.document()));
+            return;
+        }
+
+        BsonCompoundJsonWriter.writeObject(this.document(), out);
+    }
 
-        this.document.forEach((key, value) -> {
-            object.addProperty(key, BsonCompoundElement.toCompound(value).toJson());
-        });
+    @Override
+    public String toJson() {
+        BsonCompoundFrozen frozen = this.frozen();
+        if (frozen != null)
+            return frozen.json(this.document());
 
-        return object.toString();
+        return super.toJson();
     }
 
     @Override
     public BsonCompoundObject clone() {
-        return new BsonCompoundObject(new Document(this.document));
+        if (CompoundMetrics.ENABLED)
+            CompoundMetrics.cloned(this.size());
+
+        if (this.isEscaped()) // Containers may be written to from outside the tree, sharing them would alias both sides.
+            return BsonCompoundObject.owned((Document) BsonCompoundTree.deepCopy(this.document()));
+
+        return this.share(BsonCompoundObject.owned(this.document()));
     }
 
     @Override
     public boolean equals(Object obj) {
-        if (obj == null)
-            return false;
+        if (obj == this)
+            return true;
 
         if (!(obj instanceof BsonCompoundObject other))
             return false;
 
-        return other.document.equals(this.document);
+        if (this.hashMismatch(other))
+            return false;
+
+        return other.document().equals(this.document());
     }
 
     @Override
     public int hashCode() {
-        return this.document.hashCode();
+        return this.cachedHashCode();
     }
 
+    /**
+     * The document of this compound, a copy if the compound is frozen.
+     */
     public Document getDocument() {
-        return document;
+        return (Document) this.exclusiveStorage();
     }
 }
@@ -0,0 +1,440 @@
+package be.raft.compound;
+
+import com.google.common.base.Preconditions;
+import org.bson.BsonBinaryReader;
+import org.bson.BsonBinaryWriter;
+import org.bson.BsonType;
+import org.bson.ByteBuf;
+import org.bson.ByteBufNIO;
+import org.bson.Document;
+import org.bson.io.BasicOutputBuffer;
+import org.bson.io.ByteBufferBsonInput;
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Encodes and decodes large arrays and batches of compounds in parallel on a {@link ForkJoinPool}.
+ * <p>
+ * Arrays larger than the segment size are split into segments encoded into separate buffers,
+ * which are then stitched behind a single length prefix. Decoding first scans the element offsets,
+ * skipping over the values, and decodes the segments in parallel.
+ * Smaller arrays and documents are encoded and decoded like {@link BsonCompoundCodec} does.
+ */
+public class BsonCompoundParallelCodec {
+    private static final int DEFAULT_SEGMENT_SIZE = 1024;
+    private static final byte ARRAY_TYPE = 0x04;
+    private static final int MIN_ELEMENT_LENGTH = 3; // Type, single digit name and its terminator.
+
+    private final BsonCompoundCodec codec;
+    private final ForkJoinPool pool;
+    private final int segmentSize;
+
+    /**
+     * @param segmentSize number of elements, or documents of a batch, per segment.
+     */
+    public BsonCompoundParallelCodec(@NotNull BsonCompoundCodec codec, @NotNull ForkJoinPool pool, int segmentSize) {
+        Preconditions.checkNotNull(codec);
+        Preconditions.checkNotNull(pool);
+        Preconditions.checkArgument(segmentSize > 0, "Segment size must be positive: %s", segmentSize);
+
+        this.codec = codec;
+        this.pool = pool;
+        this.segmentSize = segmentSize;
+    }
+
+    public BsonCompoundParallelCodec() {
+        this(BsonCompoundCodec.DEFAULT, ForkJoinPool.commonPool(), DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Encodes the object, its large top level arrays are encoded in parallel.
+     */
+    public byte[] encode(@NotNull BsonCompoundObject object) {
+        Preconditions.checkNotNull(object);
+
+        if (object.isRaw() || object.isFrozen()) // Already encoded.
+            return this.codec.encode(object);
+
+        Document document = object.document();
+        List<Object> parts = new ArrayList<>(); // Encoded fields, or the segments of large arrays.
+        List<Map.Entry<String, Object>> run = new ArrayList<>();
+
+        for (Map.Entry<String, Object> entry : document.entrySet()) {
+            if (!(entry.getValue() instanceof List<?> list) || list.size() <= this.segmentSize) {
+                run.add(entry);
+                continue;
+            }
+
+            if (!run.isEmpty()) {
+                List<Map.Entry<String, Object>> fields = run;
+                parts.add(this.pool.submit(() -> this.encodeFields(fields)));
+                run = new ArrayList<>();
+            }
+
+            parts.add(new ArrayField(entry.getKey(), this.submitSegments(list)));
+        }
+
+        if (!run.isEmpty()) {
+            List<Map.Entry<String, Object>> fields = run;
+            parts.add(this.pool.submit(() -> this.encodeFields(fields)));
+        }
+
+        Output output = new Output();
+        for (Object part : parts) {
+            if (part instanceof ArrayField field) {
+                output.writeByte(ARRAY_TYPE);
+                output.writeName(field.key());
+                output.writeSegments(field.segments());
+            } else {
+                output.writeElements(BsonCompoundParallelCodec.join(part));
+            }
+        }
+
+        return output.toDocument();
+    }
+
+    /**
+     * Encodes the array in the BSON array layout, a document keyed by the element indexes.
+     */
+    public byte[] encode(@NotNull BsonCompoundArray array) {
+        Preconditions.checkNotNull(array);
+
+        Output output = new Output();
+        output.writeSegments(this.submitSegments(array.elements()));
+
+        return output.toBytes();
+    }
+
+    /**
+     * Encodes the objects one after the other, as read by {@link #decodeAll(ByteBuffer)} or {@link BsonCompoundReader}.
+     */
+    public byte[] encodeAll(@NotNull Collection<? extends BsonCompoundObject> objects) {
+        Preconditions.checkNotNull(objects);
+
+        List<BsonCompoundObject> list = new ArrayList<>(objects);
+        List<ForkJoinTask<byte[]>> tasks = new ArrayList<>();
+
+        for (int from = 0; from < list.size(); from += this.segmentSize) {
+            List<BsonCompoundObject> batch = list.subList(from, Math.min(list.size(), from + this.segmentSize));
+            tasks.add(this.pool.submit(() -> {
+                try (BasicOutputBuffer buffer = new BasicOutputBuffer()) {
+                    for (BsonCompoundObject object : batch) {
+                        this.codec.encode(object, buffer);
+                    }
+
+                    return buffer.toByteArray();
+                }
+            }));
+        }
+
+        int length = 0;
+        List<byte[]> encoded = new ArrayList<>(tasks.size());
+        for (ForkJoinTask<byte[]> task : tasks) {
+            byte[] bytes = task.join();
+            encoded.add(bytes);
+            length += bytes.length;
+        }
+
+        byte[] bytes = new byte[length];
+        int position = 0;
+        for (byte[] part : encoded) {
+            System.arraycopy(part, 0, bytes, position, part.length);
+            position += part.length;
+        }
+
+        return bytes;
+    }
+
+    /**
+     * Decodes the object, its large top level arrays are decoded in parallel.
+     */
+    public BsonCompoundObject decode(@NotNull ByteBuffer buffer) {
+        Preconditions.checkNotNull(buffer);
+
+        ByteBuffer bytes = buffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+        Document document = new Document();
+
+        try (BsonBinaryReader reader = new BsonBinaryReader(bytes.duplicate())) {
+            reader.readStartDocument();
+
+            while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+                String key = reader.readName();
+
+                if (reader.getCurrentBsonType() != BsonType.ARRAY) {
+                    document.put(key, this.codec.readValue(reader));
+                    continue;
+                }
+
+                int offset = reader.getBsonInput().getPosition();
+                int length = bytes.getInt(offset);
+                if (length - 5 <= (long) this.segmentSize * MIN_ELEMENT_LENGTH) { // Cannot hold more than a segment.
+                    document.put(key, this.codec.readValue(reader));
+                    continue;
+                }
+
+                document.put(key, this.decodeElements(bytes.slice(offset, length).order(ByteOrder.LITTLE_ENDIAN)));
+                reader.skipValue();
+            }
+
+            reader.readEndDocument();
+        }
+
+        return BsonCompoundObject.owned(document);
+    }
+
+    /**
+     * Decodes an array encoded in the BSON array layout, see {@link #encode(BsonCompoundArray)}.
+     */
+    public BsonCompoundArray decodeArray(@NotNull ByteBuffer buffer) {
+        Preconditions.checkNotNull(buffer);
+
+        return BsonCompoundArray.owned(this.decodeElements(buffer.slice().order(ByteOrder.LITTLE_ENDIAN)));
+    }
+
+    /**
+     * Decodes consecutive documents, such as the output of {@link #encodeAll(Collection)}.
+     */
+    public List<BsonCompoundObject> decodeAll(@NotNull ByteBuffer buffer) {
+        Preconditions.checkNotNull(buffer);
+
+        ByteBuffer bytes = buffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+        List<ForkJoinTask<List<BsonCompoundObject>>> tasks = new ArrayList<>();
+
+        List<ByteBuffer> batch = new ArrayList<>(this.segmentSize);
+        int position = 0;
+        while (position < bytes.limit()) {
+            int length = bytes.getInt(position);
+            Preconditions.checkArgument(length >= 5 && position + length <= bytes.limit(), "Invalid document length at %s: %s", position, length);
+
+            batch.add(bytes.slice(position, length));
+            position += length;
+
+            if (batch.size() == this.segmentSize || position == bytes.limit()) {
+                List<ByteBuffer> documents = batch;
+                tasks.add(this.pool.submit(() -> {
+                    List<BsonCompoundObject> objects = new ArrayList<>(documents.size());
+                    for (ByteBuffer document : documents) {
+                        objects.add(this.codec.decode(document));
+                    }
+
+                    return objects;
+                }));
+
+                batch = new ArrayList<>(this.segmentSize);
+            }
+        }
+
+        List<BsonCompoundObject> objects = new ArrayList<>();
+        for (ForkJoinTask<List<BsonCompoundObject>> task : tasks) {
+            objects.addAll(task.join());
+        }
+
+        return objects;
+    }
+
+    private List<ForkJoinTask<byte[]>> submitSegments(List<?> elements) {
+        List<ForkJoinTask<byte[]>> segments = new ArrayList<>();
+        for (int from = 0; from < elements.size(); from += this.segmentSize) {
+            int start = from;
+            int end = Math.min(elements.size(), from + this.segmentSize);
+
+            segments.add(this.pool.submit(() -> this.encodeElements(elements, start, end)));
+        }
+
+        return segments;
+    }
+
+    // Segments are encoded as documents, only their elements are kept when stitched.
+    private byte[] encodeElements(List<?> elements, int from, int to) {
+        try (BasicOutputBuffer buffer = new BasicOutputBuffer(); BsonBinaryWriter writer = new BsonBinaryWriter(buffer)) {
+            writer.writeStartDocument();
+            for (int i = from; i < to; i++) {
+                writer.writeName(Integer.toString(i));
+                this.codec.encodeValue(writer, elements.get(i));
+            }
+            writer.writeEndDocument();
+
+            return buffer.toByteArray();
+        }
+    }
+
+    private byte[] encodeFields(List<Map.Entry<String, Object>> fields) {
+        try (BasicOutputBuffer buffer = new BasicOutputBuffer(); BsonBinaryWriter writer = new BsonBinaryWriter(buffer)) {
+            writer.writeStartDocument();
+            for (Map.Entry<String, Object> field : fields) {
+                writer.writeName(field.getKey());
+                this.codec.encodeValue(writer, field.getValue());
+            }
+            writer.writeEndDocument();
+
+            return buffer.toByteArray();
+        }
+    }
+
+    // Element offsets are found by skipping over the values, the segments between them are decoded in parallel.
+    private List<Object> decodeElements(ByteBuffer array) {
+        List<Integer> offsets = new ArrayList<>();
+        int count = 0;
+
+        try (BsonBinaryReader reader = new BsonBinaryReader(array.duplicate())) {
+            reader.readStartDocument();
+
+            int position = reader.getBsonInput().getPosition();
+            while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+                if (count % this.segmentSize == 0)
+                    offsets.add(position);
+
+                reader.skipName();
+                reader.skipValue();
+
+                count++;
+                position = reader.getBsonInput().getPosition();
+            }
+
+            offsets.add(position); // Start of the document terminator.
+        }
+
+        if (offsets.size() <= 2) // Single segment, read in place.
+            return this.readElements(array.duplicate(), count);
+
+        List<ForkJoinTask<List<Object>>> tasks = new ArrayList<>(offsets.size() - 1);
+        for (int i = 0; i < offsets.size() - 1; i++) {
+            int from = offsets.get(i);
+            int to = offsets.get(i + 1);
+
+            tasks.add(this.pool.submit(() -> this.decodeSegment(array, from, to, this.segmentSize)));
+        }
+
+        List<Object> elements = new ArrayList<>(count);
+        for (ForkJoinTask<List<Object>> task : tasks) {
+            elements.addAll(task.join());
+        }
+
+        return elements;
+    }
+
+    // Segments are read in place, the reader enters the array then jumps to the segment and stops at its end.
+    private List<Object> decodeSegment(ByteBuffer array, int from, int to, int expected) {
+        ByteBuf input = new ByteBufNIO(array.duplicate().order(ByteOrder.LITTLE_ENDIAN));
+        List<Object> elements = new ArrayList<>(expected);
+
+        try (BsonBinaryReader reader = new BsonBinaryReader(new ByteBufferBsonInput(input))) {
+            reader.readStartDocument();
+            input.position(from);
+
+            while (input.position() < to) {
+                reader.readBsonType();
+                reader.skipName();
+                elements.add(this.codec.readValue(reader));
+            }
+        }
+
+        return elements;
+    }
+
+    private List<Object> readElements(ByteBuffer buffer, int expected) {
+        List<Object> elements = new ArrayList<>(expected);
+        try (BsonBinaryReader reader = new BsonBinaryReader(buffer)) {
+            reader.readStartDocument();
+            while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+                reader.skipName();
+                elements.add(this.codec.readValue(reader));
+            }
+            reader.readEndDocument();
+        }
+
+        return elements;
+    }
+
+    private static byte[] join(Object task) {
+        @SuppressWarnings("unchecked")
+        ForkJoinTask<byte[]> bytes = (ForkJoinTask<byte[]>) task;
+        return bytes.join();
+    }
+
+    private record ArrayField(String key, List<ForkJoinTask<byte[]>> segments) {
+    }
+
+    /**
+     * Stitches encoded elements behind a document length prefix.
+     */
+    private static final class Output {
+        private final List<byte[]> chunks = new ArrayList<>();
+        private final List<int[]> ranges = new ArrayList<>(); // Offset and length in the chunk.
+        private int length;
+
+        private void write(byte[] chunk, int offset, int length) {
+            this.chunks.add(chunk);
+            this.ranges.add(new int[]{offset, length});
+            this.length += length;
+        }
+
+        private void writeByte(byte value) {
+            this.write(new byte[]{value}, 0, 1);
+        }
+
+        private void writeName(String key) {
+            byte[] name = key.getBytes(StandardCharsets.UTF_8);
+            byte[] chunk = new byte[name.length + 1];
+            System.arraycopy(name, 0, chunk, 0, name.length);
+
+            this.write(chunk, 0, chunk.length);
+        }
+
+        // Elements of an encoded document, without its length prefix and terminator.
+        private void writeElements(byte[] document) {
+            this.write(document, 4, document.length - 5);
+        }
+
+        // Length prefixed array made of the encoded segments.
+        private void writeSegments(List<ForkJoinTask<byte[]>> segments) {
+            byte[] prefix = new byte[4];
+            this.write(prefix, 0, 4);
+            int start = this.length - 4;
+
+            for (ForkJoinTask<byte[]> segment : segments) {
+                this.writeElements(segment.join());
+            }
+
+            this.writeByte((byte) 0);
+            ByteBuffer.wrap(prefix).order(ByteOrder.LITTLE_ENDIAN).putInt(this.length - start);
+        }
+
+        private byte[] toBytes() {
+            byte[] bytes = new byte[this.length];
+
+            int position = 0;
+            for (int i = 0; i < this.chunks.size(); i++) {
+                int[] range = this.ranges.get(i);
+                System.arraycopy(this.chunks.get(i), range[0], bytes, position, range[1]);
+                position += range[1];
+            }
+
+            return bytes;
+        }
+
+        // Wraps the written elements in a document.
+        private byte[] toDocument() {
+            byte[] bytes = new byte[this.length + 5];
+            ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).putInt(bytes.length);
+
+            int position = 4;
+            for (int i = 0; i < this.chunks.size(); i++) {
+                int[] range = this.ranges.get(i);
+                System.arraycopy(this.chunks.get(i), range[0], bytes, position, range[1]);
+                position += range[1];
+            }
+
+            return bytes;
+        }
+    }
+}
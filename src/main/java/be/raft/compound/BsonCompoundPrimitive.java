@@ -5,174 +5,545 @@ import fr.atlasworld.common.compound.CompoundPrimitive;
 import org.bson.types.Binary;
 import org.jetbrains.annotations.NotNull;
 
-import java.util.Base64;
+import java.io.IOException;
 import java.util.Date;
 
-public class BsonCompoundPrimitive extends BsonCompoundElement implements CompoundPrimitive {
-    private final @NotNull Object value;
+/**
+ * Primitive value of a compound, each type is stored unboxed in its own final subclass.
+ * <p>
+ * The {@link Type} tag allows dispatching with a switch, getters of the matching type return the field directly
+ * and the others throw {@link UnsupportedOperationException}.
+ */
+public abstract sealed class BsonCompoundPrimitive extends BsonCompoundElement implements CompoundPrimitive
+        permits BsonCompoundPrimitive.BooleanPrimitive, BsonCompoundPrimitive.IntPrimitive, BsonCompoundPrimitive.LongPrimitive,
+        BsonCompoundPrimitive.DoublePrimitive, BsonCompoundPrimitive.StringPrimitive, BsonCompoundPrimitive.BinaryPrimitive,
+        BsonCompoundPrimitive.DatePrimitive, BsonCompoundPrimitive.ValuePrimitive {
+
+    public static final BsonCompoundPrimitive TRUE = new BooleanPrimitive(true);
+    public static final BsonCompoundPrimitive FALSE = new BooleanPrimitive(false);
+    public static final BsonCompoundPrimitive EMPTY_STRING = new StringPrimitive("");
+
+    private static final int CACHED_INT_LOW = -128;
+    private static final int CACHED_INT_HIGH = 1023;
+    private static final BsonCompoundPrimitive[] CACHED_INTS = new BsonCompoundPrimitive[CACHED_INT_HIGH - CACHED_INT_LOW + 1];
+
+    static {
+        for (int i = 0; i < CACHED_INTS.length; i++) {
+            CACHED_INTS[i] = new IntPrimitive(i + CACHED_INT_LOW);
+        }
+    }
+
+    public enum Type {
+        BOOLEAN,
+        INT,
+        LONG,
+        DOUBLE,
+        STRING,
+        BINARY,
+        DATE,
+        /**
+         * Any other BSON value, such as an ObjectId, stored as decoded by the codec registry.
+         */
+        OTHER
+    }
+
+    // Type of the values of each class, resolved once per class so wrapping is a lookup and a switch.
+    private static final ClassValue<Type> TYPES = new ClassValue<>() {
+        @Override
+        protected Type computeValue(Class<?> type) {
+            if (type == Integer.class)
+                return Type.INT;
+
+            if (type == String.class)
+                return Type.STRING;
+
+            if (type == Long.class)
+                return Type.LONG;
+
+            if (type == Double.class)
+                return Type.DOUBLE;
+
+            if (type == Boolean.class)
+                return Type.BOOLEAN;
+
+            if (Binary.class.isAssignableFrom(type))
+                return Type.BINARY;
+
+            if (type == Date.class) // Subclasses such as Timestamp carry more than the millis, they are kept as is.
+                return Type.DATE;
+
+            return Type.OTHER;
+        }
+    };
+
+    private final Type type;
+
+    private BsonCompoundPrimitive(Type type) {
+        this.type = type;
+    }
+
+    /**
+     * Wraps the value, returning a shared instance for booleans, small ints and the empty string.
+     */
+    public static BsonCompoundPrimitive of(@NotNull Object value) {
+        Preconditions.checkNotNull(value, "Use BsonCompoundNull for null values!");
+
+        return BsonCompoundPrimitive.of(value, BsonCompoundPrimitive.typeOf(value));
+    }
+
+    /**
+     * Wraps the value, replaces the former public constructor.
+     *
+     * @deprecated primitives are split per type and can no longer be constructed, use {@link #of(Object)}.
+     */
+    @Deprecated(since = "1.0.2", forRemoval = true)
+    public static BsonCompoundPrimitive create(@NotNull Object value) {
+        return BsonCompoundPrimitive.of(value);
+    }
+
+    /**
+     * Type the value is wrapped as, {@link Type#OTHER} for containers as well.
+     */
+    static Type typeOf(Object value) {
+        return TYPES.get(value.getClass());
+    }
+
+    static BsonCompoundPrimitive of(Object value, Type type) {
+        return switch (type) {
+            case INT -> BsonCompoundPrimitive.of(((Integer) value).intValue());
+            case STRING -> BsonCompoundPrimitive.of((String) value);
+            case LONG -> new LongPrimitive((Long) value);
+            case DOUBLE -> new DoublePrimitive((Double) value);
+            case BOOLEAN -> (Boolean) value ? TRUE : FALSE;
+            case BINARY -> new BinaryPrimitive((Binary) value);
+            case DATE -> new DatePrimitive(((Date) value).getTime());
+            case OTHER -> new ValuePrimitive(value);
+        };
+    }
+
+    public static BsonCompoundPrimitive of(int value) {
+        if (value >= CACHED_INT_LOW && value <= CACHED_INT_HIGH)
+            return CACHED_INTS[value - CACHED_INT_LOW];
 
-    public BsonCompoundPrimitive(@NotNull Object value) {
+        return new IntPrimitive(value);
+    }
+
+    public static BsonCompoundPrimitive of(long value) {
+        return new LongPrimitive(value);
+    }
+
+    public static BsonCompoundPrimitive of(double value) {
+        return new DoublePrimitive(value);
+    }
+
+    public static BsonCompoundPrimitive of(boolean value) {
+        return value ? TRUE : FALSE;
+    }
+
+    public static BsonCompoundPrimitive of(@NotNull String value) {
         Preconditions.checkNotNull(value, "Use BsonCompoundNull for null values!");
 
-        this.value = value;
+        return value.isEmpty() ? EMPTY_STRING : new StringPrimitive(value);
+    }
+
+    public Type type() {
+        return this.type;
+    }
+
+    /**
+     * Value in its stored representation, boxed.
+     */
+    abstract Object value();
+
+    /**
+     * Whether this is one of the shared instances, returned by the factories without allocating.
+     */
+    boolean isShared() {
+        return this == TRUE || this == FALSE || this == EMPTY_STRING;
     }
 
     @Override
     public boolean isBoolean() {
-        return this.value instanceof Boolean;
+        return this.type == Type.BOOLEAN;
     }
 
     @Override
     public boolean getAsBoolean() {
-        if (this.isBoolean())
-            return (Boolean) this.value;
-
         throw new UnsupportedOperationException("Primitive is not a boolean: " + this);
     }
 
     @Override
     public boolean isDouble() {
-        return this.value instanceof Double;
+        return this.type == Type.DOUBLE;
     }
 
     @Override
     public double getAsDouble() {
-        if (this.isDouble())
-            return (Double) this.value;
-
         throw new UnsupportedOperationException("Primitive is not double: " + this);
     }
 
     @Override
     public boolean isLong() {
-        return this.value instanceof Long;
+        return this.type == Type.LONG;
     }
 
     @Override
     public long getAsLong() {
-        if (this.isLong())
-            return (Long) this.value;
-
         throw new UnsupportedOperationException("Primitive is not long: " + this);
     }
 
     @Override
     public boolean isInt() {
-        return this.value instanceof Integer;
+        return this.type == Type.INT;
     }
 
     @Override
     public int getAsInt() {
-        if (this.isInt())
-            return (Integer) this.value;
-
         throw new UnsupportedOperationException("Primitive is not integer: " + this);
     }
 
     @Override
     public boolean isByte() {
-        if (!(this.value instanceof Binary binary))
-            return false;
-
-        return binary.length() < 2;
+        return false;
     }
 
     @Override
     public byte getAsByte() {
-        if (!this.isByte())
-            throw new UnsupportedOperationException("Primitive is not byte: " + this);
-
-        Binary binary = (Binary) this.value;
-
-        if (binary.length() < 1) // Empty Binary so we send back a 0-byte value.
-            return (byte) 0;
-
-        return binary.getData()[0];
+        throw new UnsupportedOperationException("Primitive is not byte: " + this);
     }
 
     @Override
     public boolean isByteArray() {
-        return this.value instanceof Binary;
+        return this.type == Type.BINARY;
     }
 
     @Override
     public byte[] getAsByteArray() {
-        if (this.isByteArray())
-            return ((Binary) this.value).getData();
-
         throw new UnsupportedOperationException("Primitive is not byte array: " + this);
     }
 
     @Override
     public boolean isDate() {
-        return this.value instanceof Date;
+        return this.type == Type.DATE;
     }
 
     @Override
     public Date getAsDate() {
-        if (this.isDate())
-            return (Date) this.value;
-
         throw new UnsupportedOperationException("Primitive is not date: " + this);
     }
 
     @Override
     public boolean isChar() {
-        if (!(this.value instanceof String string))
-            return false;
-
-        return string.length() == 1;
+        return false;
     }
 
     @Override
     public char getAsChar() {
-        if (this.isChar())
-            return ((String) this.value).charAt(0);
-
         throw new UnsupportedOperationException("Primitive is not char: " + this);
     }
 
     @Override
     public boolean isString() {
-        return this.value instanceof String;
+        return this.type == Type.STRING;
     }
 
     @Override
     public String getAsString() {
-        if (this.isString())
-            return (String) this.value;
-
         throw new UnsupportedOperationException("Primitive is not string: " + this);
     }
 
+    /**
+     * Writes the value as a JSON literal, also returned by {@link #toJson()}.
+     * <p>
+     * Since 1.0.2 strings and base64 binaries are quoted and escaped, dates are written as their epoch millis
+     * and non-finite doubles as {@code null}. Previous versions returned the plain {@link String#valueOf(Object)} of the value,
+     * use {@link #getAsString()} where the unquoted string is expected.
+     */
     @Override
-    public String toJson() {
-        if (this.value instanceof Binary binary) {
-            byte[] data = binary.getData();
-            return Base64.getEncoder().encodeToString(data);
-        }
-
-        return String.valueOf(this.value);
+    public void writeJson(@NotNull Appendable out) throws IOException {
+        BsonCompoundJsonWriter.writeValue(this.value(), out);
     }
 
     @Override
     public boolean equals(Object obj) {
-        if (obj == null)
-            return false;
+        if (obj == this)
+            return true;
 
-        if (!(obj instanceof BsonCompoundPrimitive bsonCompoundPrimitive))
+        if (!(obj instanceof BsonCompoundPrimitive primitive) || primitive.type != this.type)
             return false;
 
-        return this.value.equals(bsonCompoundPrimitive.value);
+        return this.value().equals(primitive.value());
     }
 
     @Override
     public int hashCode() {
-        return this.value.hashCode();
+        return this.value().hashCode();
     }
 
     @Override
     public BsonCompoundPrimitive clone() {
-        return new BsonCompoundPrimitive(this.value);
+        return this; // Immutable: cached and shared instances can be returned as is.
+    }
+
+    public static final class BooleanPrimitive extends BsonCompoundPrimitive {
+        private final boolean value;
+
+        private BooleanPrimitive(boolean value) {
+            super(Type.BOOLEAN);
+            this.value = value;
+        }
+
+        @Override
+        Object value() {
+            return this.value;
+        }
+
+        @Override
+        public boolean getAsBoolean() {
+            return this.value;
+        }
+
+        @Override
+        public void writeJson(@NotNull Appendable out) throws IOException {
+            out.append(this.value ? "true" : "false");
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj == this; // Only the two shared instances exist.
+        }
+
+        @Override
+        public int hashCode() {
+            return Boolean.hashCode(this.value);
+        }
+    }
+
+    public static final class IntPrimitive extends BsonCompoundPrimitive {
+        private final int value;
+
+        private IntPrimitive(int value) {
+            super(Type.INT);
+            this.value = value;
+        }
+
+        @Override
+        Object value() {
+            return this.value;
+        }
+
+        @Override
+        boolean isShared() {
+            return this.value >= CACHED_INT_LOW && this.value <= CACHED_INT_HIGH;
+        }
+
+        @Override
+        public int getAsInt() {
+            return this.value;
+        }
+
+        @Override
+        public void writeJson(@NotNull Appendable out) throws IOException {
+            out.append(Integer.toString(this.value));
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof IntPrimitive primitive && primitive.value == this.value;
+        }
+
+        @Override
+        public int hashCode() {
+            return Integer.hashCode(this.value);
+        }
+    }
+
+    public static final class LongPrimitive extends BsonCompoundPrimitive {
+        private final long value;
+
+        private LongPrimitive(long value) {
+            super(Type.LONG);
+            this.value = value;
+        }
+
+        @Override
+        Object value() {
+            return this.value;
+        }
+
+        @Override
+        public long getAsLong() {
+            return this.value;
+        }
+
+        @Override
+        public void writeJson(@NotNull Appendable out) throws IOException {
+            out.append(Long.toString(this.value));
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof LongPrimitive primitive && primitive.value == this.value;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(this.value);
+        }
+    }
+
+    public static final class DoublePrimitive extends BsonCompoundPrimitive {
+        private final double value;
+
+        private DoublePrimitive(double value) {
+            super(Type.DOUBLE);
+            this.value = value;
+        }
+
+        @Override
+        Object value() {
+            return this.value;
+        }
+
+        @Override
+        public double getAsDouble() {
+            return this.value;
+        }
+
+        @Override
+        public void writeJson(@NotNull Appendable out) throws IOException {
+            BsonCompoundJsonWriter.writeDouble(this.value, out);
+        }
+
+        @Override
+        public boolean equals(Object obj) { // Same semantics as Double#equals.
+            return obj instanceof DoublePrimitive primitive
+                    && Double.doubleToLongBits(primitive.value) == Double.doubleToLongBits(this.value);
+        }
+
+        @Override
+        public int hashCode() {
+            return Double.hashCode(this.value);
+        }
+    }
+
+    public static final class StringPrimitive extends BsonCompoundPrimitive {
+        private final String value;
+
+        private StringPrimitive(String value) {
+            super(Type.STRING);
+            this.value = value;
+        }
+
+        @Override
+        Object value() {
+            return this.value;
+        }
+
+        @Override
+        public boolean isChar() {
+            return this.value.length() == 1;
+        }
+
+        @Override
+        public char getAsChar() {
+            if (this.value.length() == 1)
+                return this.value.charAt(0);
+
+            return super.getAsChar();
+        }
+
+        @Override
+        public String getAsString() {
+            return this.value;
+        }
+
+        @Override
+        public void writeJson(@NotNull Appendable out) throws IOException {
+            BsonCompoundJsonWriter.writeString(this.value, out);
+        }
+    }
+
+    public static final class BinaryPrimitive extends BsonCompoundPrimitive {
+        private final Binary value;
+
+        private BinaryPrimitive(Binary value) {
+            super(Type.BINARY);
+            this.value = value;
+        }
+
+        @Override
+        Object value() {
+            return this.value;
+        }
+
+        @Override
+        public boolean isByte() {
+            return this.value.length() < 2;
+        }
+
+        @Override
+        public byte getAsByte() {
+            if (!this.isByte())
+                return super.getAsByte();
+
+            if (this.value.length() < 1) // Empty Binary so we send back a 0-byte value.
+                return (byte) 0;
+
+            return this.value.getData()[0];
+        }
+
+        @Override
+        public byte[] getAsByteArray() {
+            return this.value.getData();
+        }
+    }
+
+    public static final class DatePrimitive extends BsonCompoundPrimitive {
+        private final long millis;
+
+        private DatePrimitive(long millis) {
+            super(Type.DATE);
+            this.millis = millis;
+        }
+
+        @Override
+        Object value() {
+            return new Date(this.millis);
+        }
+
+        @Override
+        public Date getAsDate() {
+            return new Date(this.millis); // Dates are mutable, a shared one would break immutability.
+        }
+
+        @Override
+        public void writeJson(@NotNull Appendable out) throws IOException {
+            out.append(Long.toString(this.millis));
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof DatePrimitive primitive && primitive.millis == this.millis;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(this.millis); // Same as Date#hashCode.
+        }
+    }
+
+    public static final class ValuePrimitive extends BsonCompoundPrimitive {
+        private final Object value;
+
+        private ValuePrimitive(Object value) {
+            super(Type.OTHER);
+            this.value = value;
+        }
+
+        @Override
+        Object value() {
+            return this.value;
+        }
     }
 }
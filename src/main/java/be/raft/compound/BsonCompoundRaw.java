@@ -0,0 +1,148 @@
+package be.raft.compound;
+
+import com.google.common.base.Preconditions;
+import org.bson.BsonBinaryReader;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+import org.bson.Document;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Encoded BSON document read in place from a buffer, heap or direct, without decoding the fields that are not accessed.
+ */
+final class BsonCompoundRaw {
+    private static final int EMPTY_DOCUMENT_LENGTH = 5;
+
+    private final ByteBuffer buffer;
+
+    BsonCompoundRaw(ByteBuffer buffer) {
+        Preconditions.checkNotNull(buffer);
+        Preconditions.checkArgument(buffer.remaining() >= EMPTY_DOCUMENT_LENGTH, "Buffer too small to hold a BSON document!");
+
+        ByteBuffer slice = buffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+        int length = slice.getInt(0);
+        Preconditions.checkArgument(length >= EMPTY_DOCUMENT_LENGTH && length <= slice.remaining(),
+                "Invalid BSON document length: %s", length);
+
+        this.buffer = slice.limit(length).slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Value stored under the key, embedded documents are returned raw.
+     */
+    Object get(String key) {
+        try (BsonBinaryReader reader = this.reader()) {
+            reader.readStartDocument();
+
+            while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+                if (!reader.readName().equals(key)) {
+                    reader.skipValue();
+                    continue;
+                }
+
+                if (reader.getCurrentBsonType() == BsonType.DOCUMENT)
+                    return this.embedded(reader.getBsonInput().getPosition());
+
+                return BsonCompoundCodec.DEFAULT.readValue(reader);
+            }
+
+            return null;
+        }
+    }
+
+    /**
+     * All fields in order, embedded documents are returned raw.
+     */
+    List<Map.Entry<String, Object>> entries() {
+        List<Map.Entry<String, Object>> entries = new ArrayList<>();
+
+        try (BsonBinaryReader reader = this.reader()) {
+            reader.readStartDocument();
+
+            while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+                String key = reader.readName();
+
+                Object value;
+                if (reader.getCurrentBsonType() == BsonType.DOCUMENT) {
+                    value = this.embedded(reader.getBsonInput().getPosition());
+                    reader.skipValue();
+                } else {
+                    value = BsonCompoundCodec.DEFAULT.readValue(reader);
+                }
+
+                entries.add(new AbstractMap.SimpleImmutableEntry<>(key, value));
+            }
+        }
+
+        return entries;
+    }
+
+    boolean has(String key) {
+        try (BsonBinaryReader reader = this.reader()) {
+            reader.readStartDocument();
+
+            while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+                if (reader.readName().equals(key))
+                    return true;
+
+                reader.skipValue();
+            }
+
+            return false;
+        }
+    }
+
+    int size() {
+        int size = 0;
+
+        try (BsonBinaryReader reader = this.reader()) {
+            reader.readStartDocument();
+
+            while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+                reader.skipName();
+                reader.skipValue();
+                size++;
+            }
+        }
+
+        return size;
+    }
+
+    boolean isEmpty() {
+        return this.buffer.limit() == EMPTY_DOCUMENT_LENGTH;
+    }
+
+    Document decode() {
+        try (BsonBinaryReader reader = this.reader()) {
+            return BsonCompoundCodec.DEFAULT.readDocument(reader);
+        }
+    }
+
+    void pipe(BsonWriter writer) {
+        try (BsonBinaryReader reader = this.reader()) {
+            writer.pipe(reader);
+        }
+    }
+
+    /**
+     * The encoded document, positioned at its first byte.
+     */
+    ByteBuffer buffer() {
+        return this.buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    BsonBinaryReader reader() {
+        return new BsonBinaryReader(this.buffer());
+    }
+
+    private BsonCompoundRaw embedded(int position) {
+        int length = this.buffer.getInt(position);
+        return new BsonCompoundRaw(this.buffer.slice(position, length));
+    }
+}
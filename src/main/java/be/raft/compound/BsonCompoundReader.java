@@ -0,0 +1,159 @@
+package be.raft.compound;
+
+import com.google.common.base.Preconditions;
+import org.bson.BsonBinaryReader;
+import org.bson.BsonType;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Pull reader over a stream of concatenated BSON documents, such as a mongodump {@code .bson} file.
+ * <p>
+ * Documents are read one at a time into a single reused buffer, memory use only depends on the largest document.
+ */
+public class BsonCompoundReader implements Closeable {
+    private static final int LENGTH_PREFIX_SIZE = 4;
+    private static final int MIN_DOCUMENT_SIZE = 5;
+    private static final int INITIAL_BUFFER_SIZE = 16 * 1024;
+
+    private final ReadableByteChannel channel;
+    private ByteBuffer buffer;
+
+    public BsonCompoundReader(@NotNull ReadableByteChannel channel) {
+        Preconditions.checkNotNull(channel);
+
+        this.channel = channel;
+        this.buffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    public BsonCompoundReader(@NotNull InputStream stream) {
+        this(Channels.newChannel(Preconditions.checkNotNull(stream)));
+    }
+
+    /**
+     * Reads and decodes the next document.
+     *
+     * @return the next document, or {@code null} once the end of the stream is reached.
+     */
+    @Nullable
+    public BsonCompoundObject read() throws IOException {
+        if (!this.fill())
+            return null;
+
+        try (BsonBinaryReader reader = new BsonBinaryReader(this.buffer.duplicate())) {
+            return BsonCompoundObject.owned(BsonCompoundCodec.DEFAULT.readDocument(reader));
+        }
+    }
+
+    /**
+     * Reports the content of the next document to the visitor without building any compound.
+     *
+     * @return {@code false} once the end of the stream is reached.
+     */
+    public boolean accept(@NotNull BsonCompoundVisitor visitor) throws IOException {
+        Preconditions.checkNotNull(visitor);
+
+        if (!this.fill())
+            return false;
+
+        try (BsonBinaryReader reader = new BsonBinaryReader(this.buffer.duplicate())) {
+            this.visitDocument(reader, visitor);
+        }
+
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.channel.close();
+    }
+
+    // Loads the next document in the buffer, positioned at its first byte.
+    private boolean fill() throws IOException {
+        this.buffer.clear().limit(LENGTH_PREFIX_SIZE);
+
+        int read = this.readFully();
+        if (read == 0)
+            return false;
+
+        if (read < LENGTH_PREFIX_SIZE)
+            throw new EOFException("Truncated BSON document length.");
+
+        int length = this.buffer.getInt(0);
+        if (length < MIN_DOCUMENT_SIZE)
+            throw new IOException("Invalid BSON document length: " + length);
+
+        if (length > this.buffer.capacity()) {
+            ByteBuffer grown = ByteBuffer.allocate(Math.max(length, this.buffer.capacity() * 2)).order(ByteOrder.LITTLE_ENDIAN);
+            grown.putInt(length);
+            this.buffer = grown;
+        }
+
+        this.buffer.limit(length);
+        if (this.readFully() < length - LENGTH_PREFIX_SIZE)
+            throw new EOFException("Truncated BSON document, expected " + length + " bytes.");
+
+        this.buffer.flip();
+        return true;
+    }
+
+    private int readFully() throws IOException {
+        int total = 0;
+
+        while (this.buffer.hasRemaining()) {
+            int read = this.channel.read(this.buffer);
+            if (read < 0)
+                break;
+
+            total += read;
+        }
+
+        return total;
+    }
+
+    private void visitDocument(BsonBinaryReader reader, BsonCompoundVisitor visitor) {
+        reader.readStartDocument();
+        visitor.startObject();
+
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            if (!visitor.field(reader.readName())) {
+                reader.skipValue();
+                continue;
+            }
+
+            this.visitValue(reader, visitor);
+        }
+
+        reader.readEndDocument();
+        visitor.endObject();
+    }
+
+    private void visitArray(BsonBinaryReader reader, BsonCompoundVisitor visitor) {
+        reader.readStartArray();
+        visitor.startArray();
+
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            this.visitValue(reader, visitor);
+        }
+
+        reader.readEndArray();
+        visitor.endArray();
+    }
+
+    private void visitValue(BsonBinaryReader reader, BsonCompoundVisitor visitor) {
+        switch (reader.getCurrentBsonType()) {
+            case DOCUMENT -> this.visitDocument(reader, visitor);
+            case ARRAY -> this.visitArray(reader, visitor);
+            default -> visitor.value(BsonCompoundCodec.DEFAULT.readValue(reader));
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package be.raft.compound;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hidden class of a shaped document, the ordered sequence of its keys.
+ * <p>
+ * Shapes form a transition tree from the empty shape: documents receiving the same keys in the same order
+ * end up sharing the same shape and its key table. Shapes are never dropped, so they are bounded in keys,
+ * transitions and in total: documents going past these limits fall back to a map.
+ */
+final class BsonCompoundShape {
+    static final BsonCompoundShape EMPTY = new BsonCompoundShape(null, new String[0]);
+
+    private static final int MAX_KEYS = 64;
+    private static final int MAX_TRANSITIONS = 32; // Documents used as maps would otherwise create a shape per key.
+    private static final int MAX_ROOT_TRANSITIONS = 1024; // Shared by every shaped document.
+    private static final int MAX_SHAPES = 16384; // Shapes live as long as the JVM, varied key sequences must not grow them forever.
+    private static final int LINEAR_SCAN_KEYS = 8;
+    private static final AtomicInteger COUNT = new AtomicInteger();
+
+    private final BsonCompoundShape parent;
+    private final String[] keys;
+    private final Map<String, Integer> indexes; // Only for shapes too large to scan.
+    private final Map<String, BsonCompoundShape> transitions;
+
+    private BsonCompoundShape(BsonCompoundShape parent, String[] keys) {
+        this.parent = parent;
+        this.keys = keys;
+        this.transitions = new ConcurrentHashMap<>(4);
+
+        if (keys.length > LINEAR_SCAN_KEYS) {
+            this.indexes = new HashMap<>(keys.length * 2);
+            for (int i = 0; i < keys.length; i++) {
+                this.indexes.put(keys[i], i);
+            }
+        } else {
+            this.indexes = null;
+        }
+    }
+
+    int size() {
+        return this.keys.length;
+    }
+
+    String key(int index) {
+        return this.keys[index];
+    }
+
+    BsonCompoundShape parent() {
+        return this.parent;
+    }
+
+    int indexOf(Object key) {
+        if (this.indexes != null) {
+            Integer index = this.indexes.get(key);
+            return index == null ? -1 : index;
+        }
+
+        for (int i = 0; i < this.keys.length; i++) {
+            String candidate = this.keys[i];
+            if (candidate == key || candidate.equals(key))
+                return i;
+        }
+
+        return -1;
+    }
+
+    /**
+     * Shape with the given key appended, {@code null} if the limits of the shapes are reached.
+     */
+    BsonCompoundShape with(String key) {
+        BsonCompoundShape shape = this.transitions.get(key);
+        if (shape != null)
+            return shape;
+
+        int maxTransitions = this.parent == null ? MAX_ROOT_TRANSITIONS : MAX_TRANSITIONS;
+        if (this.keys.length >= MAX_KEYS || this.transitions.size() >= maxTransitions || COUNT.get() >= MAX_SHAPES)
+            return null;
+
+        return this.transitions.computeIfAbsent(key, k -> {
+            COUNT.incrementAndGet();
+
+            String[] keys = Arrays.copyOf(this.keys, this.keys.length + 1);
+            keys[this.keys.length] = k;
+
+            return new BsonCompoundShape(this, keys);
+        });
+    }
+}
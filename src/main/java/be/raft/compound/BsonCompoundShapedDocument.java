@@ -0,0 +1,407 @@
+package be.raft.compound;
+
+import org.bson.Document;
+
+import java.io.Serial;
+import java.util.AbstractCollection;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Document storing its keys in a shared {@link BsonCompoundShape} and its values in an array.
+ * <p>
+ * Lookups on a shaped document are an index into the array. Once the document diverges from the shapes,
+ * by removing a key other than the last one or going past the shape limits, it falls back to the map of the document.
+ * <p>
+ * {@link Document} always creates its backing map, so a shaped document still holds an empty {@code LinkedHashMap}
+ * of 56 bytes. Its table and per-entry nodes are only allocated on divergence. With compressed oops, a document of
+ * 10 fields retains 160 bytes shaped against 552 as a plain document, and 224 against 1016 with 20 fields,
+ * see {@code BsonCompoundShapeBenchmark}.
+ * <p>
+ * Shapes are not serializable, a shaped document is serialized as a plain {@link Document}.
+ */
+final class BsonCompoundShapedDocument extends Document {
+    private static final Object[] NO_VALUES = new Object[0];
+
+    private BsonCompoundShape shape; // Null once diverged.
+    private Object[] values;
+
+    BsonCompoundShapedDocument() {
+        this.shape = BsonCompoundShape.EMPTY;
+        this.values = NO_VALUES;
+    }
+
+    private BsonCompoundShapedDocument(BsonCompoundShape shape, Object[] values) {
+        this.shape = shape;
+        this.values = values;
+    }
+
+    @Serial
+    private Object writeReplace() {
+        return new Document(this);
+    }
+
+    boolean isShaped() {
+        return this.shape != null;
+    }
+
+    /**
+     * Shallow copy sharing the shape of this document.
+     */
+    BsonCompoundShapedDocument copy() {
+        if (this.shape != null)
+            return new BsonCompoundShapedDocument(this.shape, Arrays.copyOf(this.values, this.shape.size()));
+
+        BsonCompoundShapedDocument copy = new BsonCompoundShapedDocument(null, null);
+        copy.putAllDiverged(this);
+
+        return copy;
+    }
+
+    private void putAllDiverged(Map<String, Object> values) {
+        for (Map.Entry<String, Object> entry : values.entrySet()) {
+            super.put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    // Moves the values to the map of the document, for good.
+    private void diverge() {
+        BsonCompoundShape shape = this.shape;
+        Object[] values = this.values;
+
+        this.shape = null;
+        this.values = null;
+
+        for (int i = 0; i < shape.size(); i++) {
+            super.put(shape.key(i), values[i]);
+        }
+    }
+
+    @Override
+    public int size() {
+        return this.shape != null ? this.shape.size() : super.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return this.size() == 0;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return this.shape != null ? this.shape.indexOf(key) >= 0 : super.containsKey(key);
+    }
+
+    @Override
+    public boolean containsValue(Object value) {
+        if (this.shape == null)
+            return super.containsValue(value);
+
+        for (int i = 0; i < this.shape.size(); i++) {
+            if (Objects.equals(this.values[i], value))
+                return true;
+        }
+
+        return false;
+    }
+
+    @Override
+    public Object get(Object key) {
+        if (this.shape == null)
+            return super.get(key);
+
+        int index = this.shape.indexOf(key);
+        return index < 0 ? null : this.values[index];
+    }
+
+    @Override
+    public <T> T get(Object key, Class<T> clazz) {
+        return clazz.cast(this.get(key));
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T get(Object key, T defaultValue) {
+        Object value = this.get(key);
+        return value == null ? defaultValue : (T) value;
+    }
+
+    @Override
+    public Object put(String key, Object value) {
+        if (this.shape == null)
+            return super.put(key, value);
+
+        int index = this.shape.indexOf(key);
+        if (index >= 0) {
+            Object previous = this.values[index];
+            this.values[index] = value;
+
+            return previous;
+        }
+
+        BsonCompoundShape next = this.shape.with(key);
+        if (next == null) {
+            this.diverge();
+            return super.put(key, value);
+        }
+
+        int size = this.shape.size();
+        if (this.values.length <= size)
+            this.values = Arrays.copyOf(this.values, Math.max(4, size * 2));
+
+        this.values[size] = value;
+        this.shape = next;
+
+        return null;
+    }
+
+    @Override
+    public Document append(String key, Object value) {
+        this.put(key, value);
+        return this;
+    }
+
+    @Override
+    public void putAll(Map<? extends String, ?> map) {
+        for (Map.Entry<? extends String, ?> entry : map.entrySet()) {
+            this.put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    @Override
+    public Object remove(Object key) {
+        if (this.shape == null)
+            return super.remove(key);
+
+        int index = this.shape.indexOf(key);
+        if (index < 0)
+            return null;
+
+        if (index != this.shape.size() - 1) {
+            this.diverge();
+            return super.remove(key);
+        }
+
+        Object previous = this.values[index];
+        this.values[index] = null;
+        this.shape = this.shape.parent(); // Removing the last key goes back to the previous shape.
+
+        return previous;
+    }
+
+    @Override
+    public void clear() {
+        if (this.shape != null) { // Keeps the values array for the next keys.
+            Arrays.fill(this.values, 0, this.shape.size(), null);
+            this.shape = BsonCompoundShape.EMPTY;
+            return;
+        }
+
+        super.clear();
+
+        this.shape = BsonCompoundShape.EMPTY;
+        this.values = NO_VALUES;
+    }
+
+    @Override
+    public Set<String> keySet() {
+        return new AbstractSet<>() {
+            @Override
+            public Iterator<String> iterator() {
+                Iterator<Map.Entry<String, Object>> iterator = BsonCompoundShapedDocument.this.entrySet().iterator();
+
+                return new Iterator<>() {
+                    @Override
+                    public boolean hasNext() {
+                        return iterator.hasNext();
+                    }
+
+                    @Override
+                    public String next() {
+                        return iterator.next().getKey();
+                    }
+
+                    @Override
+                    public void remove() {
+                        iterator.remove();
+                    }
+                };
+            }
+
+            @Override
+            public boolean contains(Object key) {
+                return BsonCompoundShapedDocument.this.containsKey(key);
+            }
+
+            @Override
+            public int size() {
+                return BsonCompoundShapedDocument.this.size();
+            }
+        };
+    }
+
+    @Override
+    public Collection<Object> values() {
+        return new AbstractCollection<>() {
+            @Override
+            public Iterator<Object> iterator() {
+                Iterator<Map.Entry<String, Object>> iterator = BsonCompoundShapedDocument.this.entrySet().iterator();
+
+                return new Iterator<>() {
+                    @Override
+                    public boolean hasNext() {
+                        return iterator.hasNext();
+                    }
+
+                    @Override
+                    public Object next() {
+                        return iterator.next().getValue();
+                    }
+
+                    @Override
+                    public void remove() {
+                        iterator.remove();
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return BsonCompoundShapedDocument.this.size();
+            }
+        };
+    }
+
+    @Override
+    public Set<Map.Entry<String, Object>> entrySet() {
+        return new AbstractSet<>() {
+            @Override
+            public Iterator<Map.Entry<String, Object>> iterator() {
+                if (BsonCompoundShapedDocument.this.shape == null)
+                    return BsonCompoundShapedDocument.super.entrySet().iterator();
+
+                return new ShapeIterator(BsonCompoundShapedDocument.this.shape);
+            }
+
+            @Override
+            public int size() {
+                return BsonCompoundShapedDocument.this.size();
+            }
+        };
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == this)
+            return true;
+
+        if (!(obj instanceof Map<?, ?> map) || map.size() != this.size())
+            return false;
+
+        for (Map.Entry<String, Object> entry : this.entrySet()) {
+            Object value = entry.getValue();
+            if (value == null ? map.get(entry.getKey()) != null || !map.containsKey(entry.getKey()) : !value.equals(map.get(entry.getKey())))
+                return false;
+        }
+
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = 0;
+        for (Map.Entry<String, Object> entry : this.entrySet()) {
+            hash += entry.hashCode();
+        }
+
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("Document{{");
+
+        boolean first = true;
+        for (Map.Entry<String, Object> entry : this.entrySet()) {
+            if (!first)
+                builder.append(", ");
+
+            first = false;
+            builder.append(entry.getKey()).append('=').append(entry.getValue());
+        }
+
+        return builder.append("}}").toString();
+    }
+
+    // Iterates the keys of the shape at creation, reads and writes go through the document so they survive a divergence.
+    private final class ShapeIterator implements Iterator<Map.Entry<String, Object>> {
+        private final BsonCompoundShape shape;
+        private int index;
+        private String current;
+
+        private ShapeIterator(BsonCompoundShape shape) {
+            this.shape = shape;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return this.index < this.shape.size();
+        }
+
+        @Override
+        public Map.Entry<String, Object> next() {
+            if (!this.hasNext())
+                throw new NoSuchElementException();
+
+            String key = this.shape.key(this.index++);
+            this.current = key;
+
+            return new Map.Entry<>() {
+                @Override
+                public String getKey() {
+                    return key;
+                }
+
+                @Override
+                public Object getValue() {
+                    return BsonCompoundShapedDocument.this.get(key);
+                }
+
+                @Override
+                public Object setValue(Object value) {
+                    return BsonCompoundShapedDocument.this.put(key, value);
+                }
+
+                @Override
+                public boolean equals(Object obj) {
+                    return obj instanceof Map.Entry<?, ?> entry && key.equals(entry.getKey()) && Objects.equals(this.getValue(), entry.getValue());
+                }
+
+                @Override
+                public int hashCode() {
+                    return key.hashCode() ^ Objects.hashCode(this.getValue());
+                }
+
+                @Override
+                public String toString() {
+                    return key + "=" + this.getValue();
+                }
+            };
+        }
+
+        @Override
+        public void remove() {
+            if (this.current == null)
+                throw new IllegalStateException();
+
+            BsonCompoundShapedDocument.this.remove(this.current);
+            this.current = null;
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package be.raft.compound;
+
+import org.bson.Document;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Copy-on-write state of a compound tree that shares its containers with a clone.
+ * <p>
+ * Containers copied since the tree was last shared are owned and can be mutated in place,
+ * every other container is still shared and must be copied, along with its path to the root, before a write.
+ */
+final class BsonCompoundTree {
+    private final Set<Object> owned = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    boolean owns(Object container) {
+        return this.owned.contains(container);
+    }
+
+    void own(Object container) {
+        this.owned.add(container);
+    }
+
+    /**
+     * Makes every container reachable from the given owned container owned as well, copying the shared ones.
+     */
+    @SuppressWarnings("unchecked")
+    void ownDeep(Object container) {
+        if (container instanceof Document document) {
+            for (Map.Entry<String, Object> entry : document.entrySet()) {
+                Object value = entry.getValue();
+                if (!BsonCompoundTree.isContainer(value))
+                    continue;
+
+                Object owned = this.ownCopy(value);
+                if (owned != value)
+                    entry.setValue(owned);
+
+                this.ownDeep(owned);
+            }
+            return;
+        }
+
+        if (!(container instanceof List<?> list) || BsonCompoundTree.isPacked(list))
+            return;
+
+        ListIterator<Object> iterator = ((List<Object>) list).listIterator();
+        while (iterator.hasNext()) {
+            Object value = iterator.next();
+            if (!BsonCompoundTree.isContainer(value))
+                continue;
+
+            Object owned = this.ownCopy(value);
+            if (owned != value)
+                iterator.set(owned);
+
+            this.ownDeep(owned);
+        }
+    }
+
+    private Object ownCopy(Object container) {
+        if (this.owns(container))
+            return container;
+
+        Object copy = BsonCompoundTree.copy(container);
+        this.own(copy);
+
+        return copy;
+    }
+
+    static boolean isContainer(Object value) {
+        return value instanceof Document || value instanceof List<?>;
+    }
+
+    static boolean isPacked(Object value) {
+        return value instanceof IntArrayList || value instanceof LongArrayList || value instanceof DoubleArrayList;
+    }
+
+    /**
+     * Shallow copy of a container, nested containers stay shared.
+     */
+    static Object copy(Object container) {
+        if (container instanceof BsonCompoundShapedDocument shaped)
+            return shaped.copy();
+
+        if (container instanceof Document document)
+            return new Document(document);
+
+        if (container instanceof IntArrayList ints)
+            return ints.copy();
+
+        if (container instanceof LongArrayList longs)
+            return longs.copy();
+
+        if (container instanceof DoubleArrayList doubles)
+            return doubles.copy();
+
+        if (container instanceof List<?> list)
+            return new ArrayList<>(list);
+
+        throw new IllegalStateException("Not a compound container: " + container.getClass().getName());
+    }
+
+    /**
+     * Copy of a value sharing no container with it.
+     */
+    static Object deepCopy(Object value) {
+        if (value instanceof BsonCompoundShapedDocument shaped) {
+            BsonCompoundShapedDocument copy = shaped.copy();
+            for (Map.Entry<String, Object> entry : copy.entrySet()) {
+                entry.setValue(BsonCompoundTree.deepCopy(entry.getValue()));
+            }
+
+            return copy;
+        }
+
+        if (value instanceof Document document) {
+            Document copy = new Document();
+            for (Map.Entry<String, Object> entry : document.entrySet()) {
+                copy.put(entry.getKey(), BsonCompoundTree.deepCopy(entry.getValue()));
+            }
+
+            return copy;
+        }
+
+        if (BsonCompoundTree.isPacked(value))
+            return BsonCompoundTree.copy(value);
+
+        if (value instanceof List<?> list) {
+            List<Object> copy = new ArrayList<>(list.size());
+            for (Object element : list) {
+                copy.add(BsonCompoundTree.deepCopy(element));
+            }
+
+            return copy;
+        }
+
+        return value;
+    }
+
+    static Object slot(Object container, Object key) {
+        if (container instanceof Document document)
+            return document.get(key);
+
+        if (container instanceof List<?> list && key instanceof Integer index && index >= 0 && index < list.size())
+            return list.get(index);
+
+        return null;
+    }
+
+    /**
+     * Replaces the previous container stored under the key, nothing is replaced if it was moved or removed since.
+     */
+    @SuppressWarnings("unchecked")
+    static void replace(Object container, Object key, Object previous, Object replacement) {
+        if (container instanceof Document document) {
+            if (document.get(key) == previous)
+                document.put((String) key, replacement);
+
+            return;
+        }
+
+        if (!(container instanceof List<?> list))
+            return;
+
+        List<Object> elements = (List<Object>) list;
+        int index = key instanceof Integer integer ? integer : -1;
+        if (index < 0 || index >= elements.size() || elements.get(index) != previous)
+            index = BsonCompoundTree.identityIndexOf(elements, previous);
+
+        if (index >= 0)
+            elements.set(index, replacement);
+    }
+
+    private static int identityIndexOf(List<Object> elements, Object value) {
+        for (int i = 0; i < elements.size(); i++) {
+            if (elements.get(i) == value)
+                return i;
+        }
+
+        return -1;
+    }
+}
@@ -0,0 +1,36 @@
+package be.raft.compound;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Receives the content of BSON documents as a stream of events, see {@link BsonCompoundReader#accept(BsonCompoundVisitor)}.
+ * <p>
+ * Values are reported with the same java types the compounds store, embedded documents and arrays are reported as events.
+ */
+public interface BsonCompoundVisitor {
+
+    default void startObject() {
+    }
+
+    /**
+     * Called before the value of each field of an object.
+     *
+     * @return {@code false} to skip the value without decoding it.
+     */
+    default boolean field(@NotNull String name) {
+        return true;
+    }
+
+    default void value(@Nullable Object value) {
+    }
+
+    default void endObject() {
+    }
+
+    default void startArray() {
+    }
+
+    default void endArray() {
+    }
+}
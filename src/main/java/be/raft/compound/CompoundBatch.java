@@ -0,0 +1,1068 @@
+package be.raft.compound;
+
+import com.google.common.base.Preconditions;
+import fr.atlasworld.common.compound.CompoundArray;
+import fr.atlasworld.common.compound.CompoundElement;
+import fr.atlasworld.common.compound.CompoundNull;
+import fr.atlasworld.common.compound.CompoundObject;
+import fr.atlasworld.common.compound.CompoundPrimitive;
+import org.bson.Document;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.DoublePredicate;
+import java.util.function.IntPredicate;
+import java.util.function.LongPredicate;
+import java.util.function.Predicate;
+
+/**
+ * Immutable columnar copy of a list of compounds sharing the same keys, built for scanning a few fields across all rows.
+ * <p>
+ * Each key becomes a column: ints, longs, doubles and booleans are stored in primitive arrays, strings as codes into
+ * a dictionary, and columns mixing types or holding documents, arrays or other values as the values themselves.
+ * Bitmaps record which rows hold a value, an explicit {@code null}, or miss the key.
+ * Rows missing the value hold {@code 0} in primitive columns so sums scan the arrays without branching.
+ * <p>
+ * Rows are exposed as read-only {@link CompoundObject} views over the columns.
+ */
+public final class CompoundBatch implements Iterable<CompoundObject> {
+    private final int size;
+    private final Map<String, Column> columns;
+
+    private CompoundBatch(int size, Map<String, Column> columns) {
+        this.size = size;
+        this.columns = columns;
+    }
+
+    /**
+     * Transposes the compounds into columns, the compounds are not referenced by the batch.
+     */
+    public static CompoundBatch of(@NotNull Collection<? extends BsonCompoundObject> objects) {
+        Preconditions.checkNotNull(objects);
+
+        List<Document> rows = new ArrayList<>(objects.size());
+        Map<String, BsonCompoundPrimitive.Type> types = new LinkedHashMap<>(); // Null until a non-null value is seen.
+
+        for (BsonCompoundObject object : objects) {
+            Document document = Preconditions.checkNotNull(object).document();
+            rows.add(document);
+
+            for (Map.Entry<String, Object> entry : document.entrySet()) {
+                String key = entry.getKey();
+                BsonCompoundPrimitive.Type type = CompoundBatch.typeOf(entry.getValue());
+
+                if (!types.containsKey(key)) {
+                    types.put(key, type);
+                    continue;
+                }
+
+                BsonCompoundPrimitive.Type current = types.get(key);
+                if (type != null && type != current)
+                    types.put(key, current == null ? type : BsonCompoundPrimitive.Type.OTHER);
+            }
+        }
+
+        Map<String, Column> columns = new LinkedHashMap<>();
+        for (Map.Entry<String, BsonCompoundPrimitive.Type> entry : types.entrySet()) {
+            columns.put(entry.getKey(), CompoundBatch.column(entry.getKey(), entry.getValue(), rows));
+        }
+
+        return new CompoundBatch(rows.size(), Collections.unmodifiableMap(columns));
+    }
+
+    private static BsonCompoundPrimitive.Type typeOf(Object value) {
+        if (value == null)
+            return null;
+
+        if (value instanceof Integer)
+            return BsonCompoundPrimitive.Type.INT;
+
+        if (value instanceof Long)
+            return BsonCompoundPrimitive.Type.LONG;
+
+        if (value instanceof Double)
+            return BsonCompoundPrimitive.Type.DOUBLE;
+
+        if (value instanceof Boolean)
+            return BsonCompoundPrimitive.Type.BOOLEAN;
+
+        if (value instanceof String)
+            return BsonCompoundPrimitive.Type.STRING;
+
+        return BsonCompoundPrimitive.Type.OTHER;
+    }
+
+    private static Column column(String key, BsonCompoundPrimitive.Type type, List<Document> rows) {
+        int size = rows.size();
+        long[] present = new long[CompoundBatch.words(size)];
+        long[] nulls = new long[CompoundBatch.words(size)];
+
+        Object[] values = new Object[size];
+        for (int row = 0; row < size; row++) {
+            Document document = rows.get(row);
+            Object value = document.get(key);
+
+            if (value != null) {
+                CompoundBatch.set(present, row);
+                values[row] = value;
+            } else if (document.containsKey(key)) {
+                CompoundBatch.set(nulls, row);
+            }
+        }
+
+        if (type == null)
+            return new ValueColumn(key, size, present, nulls, values);
+
+        return switch (type) {
+            case INT -> {
+                int[] ints = new int[size];
+                for (int row = 0; row < size; row++) {
+                    if (values[row] != null)
+                        ints[row] = (Integer) values[row];
+                }
+
+                yield new IntColumn(key, size, present, nulls, ints);
+            }
+            case LONG -> {
+                long[] longs = new long[size];
+                for (int row = 0; row < size; row++) {
+                    if (values[row] != null)
+                        longs[row] = (Long) values[row];
+                }
+
+                yield new LongColumn(key, size, present, nulls, longs);
+            }
+            case DOUBLE -> {
+                double[] doubles = new double[size];
+                for (int row = 0; row < size; row++) {
+                    if (values[row] != null)
+                        doubles[row] = (Double) values[row];
+                }
+
+                yield new DoubleColumn(key, size, present, nulls, doubles);
+            }
+            case BOOLEAN -> {
+                long[] bits = new long[CompoundBatch.words(size)];
+                for (int row = 0; row < size; row++) {
+                    if (values[row] != null && (Boolean) values[row])
+                        CompoundBatch.set(bits, row);
+                }
+
+                yield new BooleanColumn(key, size, present, nulls, bits);
+            }
+            case STRING -> {
+                Map<String, Integer> codes = new HashMap<>();
+                List<String> dictionary = new ArrayList<>();
+                int[] rowCodes = new int[size];
+
+                for (int row = 0; row < size; row++) {
+                    String value = (String) values[row];
+                    if (value == null) {
+                        rowCodes[row] = -1;
+                        continue;
+                    }
+
+                    Integer code = codes.get(value);
+                    if (code == null) {
+                        code = dictionary.size();
+                        codes.put(value, code);
+                        dictionary.add(value);
+                    }
+
+                    rowCodes[row] = code;
+                }
+
+                yield new StringColumn(key, size, present, nulls, rowCodes, dictionary.toArray(new String[0]), codes);
+            }
+            default -> {
+                for (int row = 0; row < size; row++) { // The batch must not share containers with the compounds.
+                    values[row] = BsonCompoundTree.deepCopy(values[row]);
+                }
+
+                yield new ValueColumn(key, size, present, nulls, values);
+            }
+        };
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Keys of the columns, in the order they were first seen.
+     */
+    public Set<String> keys() {
+        return this.columns.keySet();
+    }
+
+    public boolean hasColumn(@NotNull String key) {
+        Preconditions.checkNotNull(key);
+
+        return this.columns.containsKey(key);
+    }
+
+    /**
+     * @throws NoSuchElementException if no row holds the key.
+     */
+    public Column column(@NotNull String key) {
+        Preconditions.checkNotNull(key);
+
+        Column column = this.columns.get(key);
+        if (column == null)
+            throw new NoSuchElementException("No column for key '" + key + "'");
+
+        return column;
+    }
+
+    /**
+     * @throws UnsupportedOperationException if the column does not only hold ints.
+     */
+    public IntColumn intColumn(@NotNull String key) {
+        if (this.column(key) instanceof IntColumn column)
+            return column;
+
+        throw new UnsupportedOperationException("Column is not int: " + key);
+    }
+
+    /**
+     * @throws UnsupportedOperationException if the column does not only hold longs.
+     */
+    public LongColumn longColumn(@NotNull String key) {
+        if (this.column(key) instanceof LongColumn column)
+            return column;
+
+        throw new UnsupportedOperationException("Column is not long: " + key);
+    }
+
+    /**
+     * @throws UnsupportedOperationException if the column does not only hold doubles.
+     */
+    public DoubleColumn doubleColumn(@NotNull String key) {
+        if (this.column(key) instanceof DoubleColumn column)
+            return column;
+
+        throw new UnsupportedOperationException("Column is not double: " + key);
+    }
+
+    /**
+     * @throws UnsupportedOperationException if the column does not only hold booleans.
+     */
+    public BooleanColumn booleanColumn(@NotNull String key) {
+        if (this.column(key) instanceof BooleanColumn column)
+            return column;
+
+        throw new UnsupportedOperationException("Column is not boolean: " + key);
+    }
+
+    /**
+     * @throws UnsupportedOperationException if the column does not only hold strings.
+     */
+    public StringColumn stringColumn(@NotNull String key) {
+        if (this.column(key) instanceof StringColumn column)
+            return column;
+
+        throw new UnsupportedOperationException("Column is not string: " + key);
+    }
+
+    /**
+     * Read-only view of the row, values are read from the columns on access.
+     */
+    public CompoundObject row(int row) {
+        Preconditions.checkElementIndex(row, this.size);
+
+        return new Row(row);
+    }
+
+    /**
+     * Read-only views of all the rows.
+     */
+    public List<CompoundObject> rows() {
+        return new AbstractList<>() {
+            @Override
+            public CompoundObject get(int index) {
+                return CompoundBatch.this.row(index);
+            }
+
+            @Override
+            public int size() {
+                return CompoundBatch.this.size;
+            }
+        };
+    }
+
+    @NotNull
+    @Override
+    public Iterator<CompoundObject> iterator() {
+        return this.rows().iterator();
+    }
+
+    /**
+     * Mutable compound holding a copy of the row.
+     */
+    public BsonCompoundObject object(int row) {
+        Preconditions.checkElementIndex(row, this.size);
+
+        return BsonCompoundObject.owned(this.document(row));
+    }
+
+    /**
+     * Mutable compounds holding a copy of each row.
+     */
+    public List<BsonCompoundObject> toObjects() {
+        List<BsonCompoundObject> objects = new ArrayList<>(this.size);
+        for (int row = 0; row < this.size; row++) {
+            objects.add(BsonCompoundObject.owned(this.document(row)));
+        }
+
+        return objects;
+    }
+
+    private Document document(int row) {
+        Document document = new Document();
+        for (Column column : this.columns.values()) {
+            if (column.has(row))
+                document.put(column.key(), BsonCompoundTree.deepCopy(column.get(row)));
+        }
+
+        return document;
+    }
+
+    private static int words(int size) {
+        return (size + 63) >>> 6;
+    }
+
+    private static void set(long[] bits, int index) {
+        bits[index >>> 6] |= 1L << index;
+    }
+
+    private static boolean get(long[] bits, int index) {
+        return (bits[index >>> 6] & (1L << index)) != 0;
+    }
+
+    private static int count(long[] bits) {
+        int count = 0;
+        for (long word : bits) {
+            count += Long.bitCount(word);
+        }
+
+        return count;
+    }
+
+    /**
+     * Values of one key across all the rows.
+     */
+    public abstract static sealed class Column permits IntColumn, LongColumn, DoubleColumn, BooleanColumn, StringColumn, ValueColumn {
+        private final String key;
+        private final BsonCompoundPrimitive.Type type;
+        final int size;
+        final long[] present; // Rows holding a non-null value.
+        private final long[] nulls; // Rows holding an explicit null.
+
+        private Column(String key, BsonCompoundPrimitive.Type type, int size, long[] present, long[] nulls) {
+            this.key = key;
+            this.type = type;
+            this.size = size;
+            this.present = present;
+            this.nulls = nulls;
+        }
+
+        public String key() {
+            return this.key;
+        }
+
+        /**
+         * Type of all the values of the column, {@link BsonCompoundPrimitive.Type#OTHER} for mixed or non-primitive values.
+         */
+        public BsonCompoundPrimitive.Type type() {
+            return this.type;
+        }
+
+        public int size() {
+            return this.size;
+        }
+
+        /**
+         * Whether the row holds a non-null value.
+         */
+        public boolean isPresent(int row) {
+            Preconditions.checkElementIndex(row, this.size);
+
+            return CompoundBatch.get(this.present, row);
+        }
+
+        /**
+         * Whether the row holds the key, its value may be {@code null}.
+         */
+        public boolean has(int row) {
+            Preconditions.checkElementIndex(row, this.size);
+
+            return CompoundBatch.get(this.present, row) || CompoundBatch.get(this.nulls, row);
+        }
+
+        /**
+         * Number of rows holding a non-null value.
+         */
+        public int count() {
+            return CompoundBatch.count(this.present);
+        }
+
+        /**
+         * Rows holding a non-null value.
+         */
+        public BitSet presentRows() {
+            return BitSet.valueOf(this.present);
+        }
+
+        /**
+         * Value of the row in its stored representation, {@code null} if it holds none.
+         */
+        abstract Object get(int row);
+
+        CompoundElement element(int row) {
+            Object value = this.get(row);
+            if (BsonCompoundTree.isContainer(value)) // The batch is immutable, containers are never handed out.
+                value = BsonCompoundTree.deepCopy(value);
+
+            return BsonCompoundElement.toOwnedCompound(value);
+        }
+    }
+
+    public static final class IntColumn extends Column {
+        private final int[] values;
+
+        private IntColumn(String key, int size, long[] present, long[] nulls, int[] values) {
+            super(key, BsonCompoundPrimitive.Type.INT, size, present, nulls);
+            this.values = values;
+        }
+
+        /**
+         * Value of the row, {@code 0} if it holds none.
+         */
+        public int getInt(int row) {
+            return this.values[row];
+        }
+
+        public long sum() {
+            long sum = 0;
+            for (int value : this.values) {
+                sum += value;
+            }
+
+            return sum;
+        }
+
+        public int count(@NotNull IntPredicate predicate) {
+            Preconditions.checkNotNull(predicate);
+
+            int count = 0;
+            for (int row = 0; row < this.size; row++) {
+                if (CompoundBatch.get(this.present, row) && predicate.test(this.values[row]))
+                    count++;
+            }
+
+            return count;
+        }
+
+        /**
+         * Rows holding a value matching the predicate.
+         */
+        public BitSet filter(@NotNull IntPredicate predicate) {
+            Preconditions.checkNotNull(predicate);
+
+            BitSet rows = new BitSet(this.size);
+            for (int row = 0; row < this.size; row++) {
+                if (CompoundBatch.get(this.present, row) && predicate.test(this.values[row]))
+                    rows.set(row);
+            }
+
+            return rows;
+        }
+
+        public int[] toArray() {
+            return this.values.clone();
+        }
+
+        @Override
+        Object get(int row) {
+            return CompoundBatch.get(this.present, row) ? this.values[row] : null;
+        }
+
+        @Override
+        CompoundElement element(int row) {
+            return CompoundBatch.get(this.present, row) ? BsonCompoundPrimitive.of(this.values[row]) : BsonCompoundNull.NULL;
+        }
+    }
+
+    public static final class LongColumn extends Column {
+        private final long[] values;
+
+        private LongColumn(String key, int size, long[] present, long[] nulls, long[] values) {
+            super(key, BsonCompoundPrimitive.Type.LONG, size, present, nulls);
+            this.values = values;
+        }
+
+        /**
+         * Value of the row, {@code 0} if it holds none.
+         */
+        public long getLong(int row) {
+            return this.values[row];
+        }
+
+        public long sum() {
+            long sum = 0;
+            for (long value : this.values) {
+                sum += value;
+            }
+
+            return sum;
+        }
+
+        public int count(@NotNull LongPredicate predicate) {
+            Preconditions.checkNotNull(predicate);
+
+            int count = 0;
+            for (int row = 0; row < this.size; row++) {
+                if (CompoundBatch.get(this.present, row) && predicate.test(this.values[row]))
+                    count++;
+            }
+
+            return count;
+        }
+
+        /**
+         * Rows holding a value matching the predicate.
+         */
+        public BitSet filter(@NotNull LongPredicate predicate) {
+            Preconditions.checkNotNull(predicate);
+
+            BitSet rows = new BitSet(this.size);
+            for (int row = 0; row < this.size; row++) {
+                if (CompoundBatch.get(this.present, row) && predicate.test(this.values[row]))
+                    rows.set(row);
+            }
+
+            return rows;
+        }
+
+        public long[] toArray() {
+            return this.values.clone();
+        }
+
+        @Override
+        Object get(int row) {
+            return CompoundBatch.get(this.present, row) ? this.values[row] : null;
+        }
+
+        @Override
+        CompoundElement element(int row) {
+            return CompoundBatch.get(this.present, row) ? BsonCompoundPrimitive.of(this.values[row]) : BsonCompoundNull.NULL;
+        }
+    }
+
+    public static final class DoubleColumn extends Column {
+        private final double[] values;
+
+        private DoubleColumn(String key, int size, long[] present, long[] nulls, double[] values) {
+            super(key, BsonCompoundPrimitive.Type.DOUBLE, size, present, nulls);
+            this.values = values;
+        }
+
+        /**
+         * Value of the row, {@code 0} if it holds none.
+         */
+        public double getDouble(int row) {
+            return this.values[row];
+        }
+
+        public double sum() {
+            double sum = 0;
+            for (double value : this.values) {
+                sum += value;
+            }
+
+            return sum;
+        }
+
+        public int count(@NotNull DoublePredicate predicate) {
+            Preconditions.checkNotNull(predicate);
+
+            int count = 0;
+            for (int row = 0; row < this.size; row++) {
+                if (CompoundBatch.get(this.present, row) && predicate.test(this.values[row]))
+                    count++;
+            }
+
+            return count;
+        }
+
+        /**
+         * Rows holding a value matching the predicate.
+         */
+        public BitSet filter(@NotNull DoublePredicate predicate) {
+            Preconditions.checkNotNull(predicate);
+
+            BitSet rows = new BitSet(this.size);
+            for (int row = 0; row < this.size; row++) {
+                if (CompoundBatch.get(this.present, row) && predicate.test(this.values[row]))
+                    rows.set(row);
+            }
+
+            return rows;
+        }
+
+        public double[] toArray() {
+            return this.values.clone();
+        }
+
+        @Override
+        Object get(int row) {
+            return CompoundBatch.get(this.present, row) ? this.values[row] : null;
+        }
+
+        @Override
+        CompoundElement element(int row) {
+            return CompoundBatch.get(this.present, row) ? BsonCompoundPrimitive.of(this.values[row]) : BsonCompoundNull.NULL;
+        }
+    }
+
+    public static final class BooleanColumn extends Column {
+        private final long[] values; // Set for rows holding true.
+
+        private BooleanColumn(String key, int size, long[] present, long[] nulls, long[] values) {
+            super(key, BsonCompoundPrimitive.Type.BOOLEAN, size, present, nulls);
+            this.values = values;
+        }
+
+        /**
+         * Value of the row, {@code false} if it holds none.
+         */
+        public boolean getBoolean(int row) {
+            Preconditions.checkElementIndex(row, this.size);
+
+            return CompoundBatch.get(this.values, row);
+        }
+
+        public int countTrue() {
+            return CompoundBatch.count(this.values);
+        }
+
+        /**
+         * Rows holding true.
+         */
+        public BitSet trueRows() {
+            return BitSet.valueOf(this.values);
+        }
+
+        @Override
+        Object get(int row) {
+            return CompoundBatch.get(this.present, row) ? CompoundBatch.get(this.values, row) : null;
+        }
+
+        @Override
+        CompoundElement element(int row) {
+            return CompoundBatch.get(this.present, row) ? BsonCompoundPrimitive.of(CompoundBatch.get(this.values, row)) : BsonCompoundNull.NULL;
+        }
+    }
+
+    public static final class StringColumn extends Column {
+        private final int[] codes; // -1 for rows holding no value.
+        private final String[] dictionary;
+        private final Map<String, Integer> index;
+
+        private StringColumn(String key, int size, long[] present, long[] nulls, int[] codes, String[] dictionary, Map<String, Integer> index) {
+            super(key, BsonCompoundPrimitive.Type.STRING, size, present, nulls);
+            this.codes = codes;
+            this.dictionary = dictionary;
+            this.index = index;
+        }
+
+        /**
+         * Value of the row, {@code null} if it holds none.
+         */
+        public String getString(int row) {
+            int code = this.codes[row];
+            return code < 0 ? null : this.dictionary[code];
+        }
+
+        /**
+         * Index of the value of the row in the dictionary, {@code -1} if it holds none.
+         */
+        public int code(int row) {
+            return this.codes[row];
+        }
+
+        /**
+         * Distinct values of the column, indexed by their code.
+         */
+        public List<String> dictionary() {
+            return List.of(this.dictionary);
+        }
+
+        public int count(@NotNull String value) {
+            Preconditions.checkNotNull(value);
+
+            Integer code = this.index.get(value);
+            if (code == null)
+                return 0;
+
+            int count = 0;
+            for (int rowCode : this.codes) {
+                if (rowCode == code)
+                    count++;
+            }
+
+            return count;
+        }
+
+        /**
+         * Rows holding a value matching the predicate, the predicate is only tested once per distinct value.
+         */
+        public BitSet filter(@NotNull Predicate<String> predicate) {
+            Preconditions.checkNotNull(predicate);
+
+            boolean[] matches = new boolean[this.dictionary.length];
+            for (int code = 0; code < matches.length; code++) {
+                matches[code] = predicate.test(this.dictionary[code]);
+            }
+
+            BitSet rows = new BitSet(this.size);
+            for (int row = 0; row < this.size; row++) {
+                int code = this.codes[row];
+                if (code >= 0 && matches[code])
+                    rows.set(row);
+            }
+
+            return rows;
+        }
+
+        @Override
+        Object get(int row) {
+            return this.getString(row);
+        }
+
+        @Override
+        CompoundElement element(int row) {
+            int code = this.codes[row];
+            return code < 0 ? BsonCompoundNull.NULL : BsonCompoundPrimitive.of(this.dictionary[code]);
+        }
+    }
+
+    /**
+     * Column of mixed or non-primitive values, stored as is.
+     */
+    public static final class ValueColumn extends Column {
+        private final Object[] values;
+
+        private ValueColumn(String key, int size, long[] present, long[] nulls, Object[] values) {
+            super(key, BsonCompoundPrimitive.Type.OTHER, size, present, nulls);
+            this.values = values;
+        }
+
+        /**
+         * Value of the row, containers are copied.
+         */
+        public CompoundElement getElement(int row) {
+            Preconditions.checkElementIndex(row, this.size);
+
+            return this.element(row);
+        }
+
+        @Override
+        Object get(int row) {
+            return this.values[row];
+        }
+    }
+
+    // Read-only view of a row, reading through the columns.
+    private final class Row implements CompoundObject {
+        private final int row;
+
+        private Row(int row) {
+            this.row = row;
+        }
+
+        private UnsupportedOperationException readOnly() {
+            return new UnsupportedOperationException("Batch rows are read-only!");
+        }
+
+        @Override
+        public CompoundElement remove(@NotNull String key) {
+            throw this.readOnly();
+        }
+
+        @Override
+        public CompoundObject addObject(@NotNull String key, @NotNull Consumer<CompoundObject> builder) {
+            throw this.readOnly();
+        }
+
+        @Override
+        public CompoundObject addArray(@NotNull String key, @NotNull Consumer<CompoundArray> builder) {
+            throw this.readOnly();
+        }
+
+        @Override
+        public CompoundObject add(@NotNull String key, @NotNull CompoundElement value) {
+            throw this.readOnly();
+        }
+
+        @Override
+        public CompoundObject add(@NotNull String key, boolean value) {
+            throw this.readOnly();
+        }
+
+        @Override
+        public CompoundObject add(@NotNull String key, double value) {
+            throw this.readOnly();
+        }
+
+        @Override
+        public CompoundObject add(@NotNull String key, long value) {
+            throw this.readOnly();
+        }
+
+        @Override
+        public CompoundObject add(@NotNull String key, int value) {
+            throw this.readOnly();
+        }
+
+        @Override
+        public CompoundObject add(@NotNull String key, byte value) {
+            throw this.readOnly();
+        }
+
+        @Override
+        public CompoundObject add(@NotNull String key, byte[] value) {
+            throw this.readOnly();
+        }
+
+        @Override
+        public CompoundObject add(@NotNull String key, char value) {
+            throw this.readOnly();
+        }
+
+        @Override
+        public CompoundObject add(@NotNull String key, @NotNull String value) {
+            throw this.readOnly();
+        }
+
+        @Override
+        public Set<Map.Entry<String, CompoundElement>> entrySet() {
+            Set<Map.Entry<String, CompoundElement>> entries = new LinkedHashSet<>();
+            for (Column column : CompoundBatch.this.columns.values()) {
+                if (column.has(this.row))
+                    entries.add(Map.entry(column.key(), column.element(this.row)));
+            }
+
+            return Collections.unmodifiableSet(entries);
+        }
+
+        @Override
+        public int size() {
+            int size = 0;
+            for (Column column : CompoundBatch.this.columns.values()) {
+                if (column.has(this.row))
+                    size++;
+            }
+
+            return size;
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return this.size() == 0;
+        }
+
+        @Override
+        public boolean has(@NotNull String key) {
+            Preconditions.checkNotNull(key);
+
+            Column column = CompoundBatch.this.columns.get(key);
+            return column != null && column.has(this.row);
+        }
+
+        @Override
+        public CompoundElement get(@NotNull String key) {
+            Preconditions.checkNotNull(key);
+
+            Column column = CompoundBatch.this.columns.get(key);
+            return column == null ? BsonCompoundNull.NULL : column.element(this.row);
+        }
+
+        @Override
+        public CompoundPrimitive getAsPrimitive(@NotNull String key) {
+            return this.get(key).getAsPrimitive();
+        }
+
+        @Override
+        public CompoundArray getAsArray(@NotNull String key) {
+            return this.get(key).getAsArray();
+        }
+
+        @Override
+        public CompoundObject getAsObject(@NotNull String key) {
+            return this.get(key).getAsObject();
+        }
+
+        @Override
+        public Map<String, CompoundElement> asMap() {
+            Map<String, CompoundElement> map = new LinkedHashMap<>();
+            for (Map.Entry<String, CompoundElement> entry : this.entrySet()) {
+                map.put(entry.getKey(), entry.getValue());
+            }
+
+            return Collections.unmodifiableMap(map);
+        }
+
+        @Override
+        public String toJson() {
+            StringBuilder builder = new StringBuilder();
+
+            try {
+                BsonCompoundJsonWriter.writeObject(CompoundBatch.this.document(this.row), builder);
+            } catch (IOException e) { // Never thrown by a StringBuilder.
+                throw new UncheckedIOException(e);
+            }
+
+            return builder.toString();
+        }
+
+        @Override
+        public boolean isArray() {
+            return false;
+        }
+
+        @Override
+        public boolean isObject() {
+            return true;
+        }
+
+        @Override
+        public boolean isPrimitive() {
+            return false;
+        }
+
+        @Override
+        public boolean isNull() {
+            return false;
+        }
+
+        @Override
+        public CompoundArray getAsArray() {
+            throw new IllegalStateException("Not a CompoundArray: " + this);
+        }
+
+        @Override
+        public CompoundObject getAsObject() {
+            return this;
+        }
+
+        @Override
+        public CompoundPrimitive getAsPrimitive() {
+            throw new IllegalStateException("Not a CompoundPrimitive: " + this);
+        }
+
+        @Override
+        public CompoundNull getAsNull() {
+            throw new IllegalStateException("Not a CompoundNull: " + this);
+        }
+
+        @Override
+        public boolean getAsBoolean() {
+            throw this.unsupportedOperation();
+        }
+
+        @Override
+        public double getAsDouble() {
+            throw this.unsupportedOperation();
+        }
+
+        @Override
+        public long getAsLong() {
+            throw this.unsupportedOperation();
+        }
+
+        @Override
+        public int getAsInt() {
+            throw this.unsupportedOperation();
+        }
+
+        @Override
+        public byte getAsByte() {
+            throw this.unsupportedOperation();
+        }
+
+        @Override
+        public byte[] getAsByteArray() {
+            throw this.unsupportedOperation();
+        }
+
+        @Override
+        public Date getAsDate() {
+            throw this.unsupportedOperation();
+        }
+
+        @Override
+        public char getAsChar() {
+            throw this.unsupportedOperation();
+        }
+
+        @Override
+        public String getAsString() {
+            throw this.unsupportedOperation();
+        }
+
+        private UnsupportedOperationException unsupportedOperation() {
+            return new UnsupportedOperationException(this.getClass().getName());
+        }
+
+        /**
+         * Mutable copy of the row.
+         */
+        @Override
+        public BsonCompoundObject clone() {
+            return CompoundBatch.this.object(this.row);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (obj == this)
+                return true;
+
+            if (!(obj instanceof Row other))
+                return false;
+
+            return other.batch() == this.batch() && other.row == this.row
+                    || CompoundBatch.this.document(this.row).equals(other.batch().document(other.row));
+        }
+
+        @Override
+        public int hashCode() {
+            return CompoundBatch.this.document(this.row).hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return this.toJson();
+        }
+
+        private CompoundBatch batch() {
+            return CompoundBatch.this;
+        }
+    }
+}
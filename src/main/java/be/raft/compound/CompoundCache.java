@@ -0,0 +1,250 @@
+package be.raft.compound;
+
+import com.google.common.base.Preconditions;
+import com.google.common.hash.Hashing;
+import org.bson.BsonBinaryReader;
+import org.bson.Document;
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Concurrent cache of decoded compounds, returning one shared {@link BsonCompoundObject#freeze() frozen} compound
+ * for every copy of the same BSON document.
+ * <p>
+ * Documents are keyed by a hash of their bytes, or by the value at a path such as {@code _id}.
+ * A cached compound is only returned if its bytes match the looked up ones, a path keyed entry
+ * is replaced once the document under its key changes.
+ * <p>
+ * Entries are weighed by their encoded size. Once over its maximum weight, the cache evicts with a clock:
+ * entries read since the hand last passed get a second chance, the others are evicted, approximating LRU
+ * without locking reads.
+ */
+public final class CompoundCache {
+    private static final int MIN_DOCUMENT_SIZE = 5;
+
+    private final Map<Object, Node> nodes = new ConcurrentHashMap<>();
+    private final CompoundPath path; // Null when keyed by content.
+    private final long maxWeight;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final ArrayDeque<Node> clock = new ArrayDeque<>(); // Guarded by the lock.
+    private long weight; // Guarded by the lock.
+    private int stale; // Removed nodes still in the clock, guarded by the lock.
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    private CompoundCache(CompoundPath path, long maxWeight) {
+        Preconditions.checkArgument(maxWeight > 0, "Max weight must be positive: %s", maxWeight);
+
+        this.path = path;
+        this.maxWeight = maxWeight;
+    }
+
+    /**
+     * Cache keyed by the content of the documents.
+     *
+     * @param maxWeight maximum total size in bytes of the cached documents.
+     */
+    public static CompoundCache byContent(long maxWeight) {
+        return new CompoundCache(null, maxWeight);
+    }
+
+    /**
+     * Cache keyed by the value at the path, documents without one are keyed by content.
+     *
+     * @param maxWeight maximum total size in bytes of the cached documents.
+     */
+    public static CompoundCache byPath(@NotNull String path, long maxWeight) {
+        CompoundPath compiled = CompoundPath.compile(Preconditions.checkNotNull(path));
+        Preconditions.checkArgument(!compiled.isWildcard(), "Wildcard paths cannot be used as keys: %s", compiled);
+
+        return new CompoundCache(compiled, maxWeight);
+    }
+
+    /**
+     * Frozen compound of the document starting at the buffer's position, decoded only if not cached.
+     * The buffer position is left untouched.
+     */
+    public BsonCompoundObject get(@NotNull ByteBuffer buffer) {
+        Preconditions.checkNotNull(buffer);
+
+        ByteBuffer bytes = buffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+        int length = bytes.getInt(0);
+        Preconditions.checkArgument(length >= MIN_DOCUMENT_SIZE && length <= bytes.remaining(), "Invalid BSON document length: %s", length);
+
+        bytes = bytes.slice(0, length);
+        Object key = this.key(bytes);
+
+        Node node = this.nodes.get(key);
+        if (node != null && node.matches(bytes)) {
+            if (!node.referenced)
+                node.referenced = true;
+
+            this.hits.increment();
+            return node.object;
+        }
+
+        this.misses.increment();
+
+        byte[] bson = new byte[length];
+        bytes.get(0, bson);
+
+        BsonCompoundObject object = CompoundCache.decode(bson);
+        if (length <= this.maxWeight)
+            this.admit(new Node(key, object, bson));
+
+        return object;
+    }
+
+    public BsonCompoundObject get(@NotNull byte[] bson) {
+        Preconditions.checkNotNull(bson);
+
+        return this.get(ByteBuffer.wrap(bson));
+    }
+
+    public void invalidateAll() {
+        this.lock.lock();
+        try {
+            this.nodes.clear();
+            this.clock.clear();
+            this.weight = 0;
+            this.stale = 0;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    public int size() {
+        return this.nodes.size();
+    }
+
+    /**
+     * Total size in bytes of the cached documents.
+     */
+    public long weight() {
+        this.lock.lock();
+        try {
+            return this.weight;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    public Stats stats() {
+        return new Stats(this.hits.sum(), this.misses.sum(), this.evictions.sum(), this.size(), this.weight());
+    }
+
+    private Object key(ByteBuffer bytes) {
+        if (this.path != null) {
+            Object value = this.path.value(new BsonCompoundObject(bytes)); // Walks the raw bytes, nothing is decoded.
+            if (value instanceof BsonCompoundRaw raw)
+                return raw.decode();
+
+            if (value != null)
+                return value;
+        }
+
+        return Hashing.murmur3_128().hashBytes(bytes.duplicate());
+    }
+
+    // The bytes are kept as the encoding of the frozen compound, they are never encoded again.
+    private static BsonCompoundObject decode(byte[] bson) {
+        Document document;
+        try (BsonBinaryReader reader = new BsonBinaryReader(ByteBuffer.wrap(bson))) {
+            document = BsonCompoundCodec.DEFAULT.readDocument(reader);
+        }
+
+        BsonCompoundObject object = BsonCompoundObject.owned(document);
+        object.freezeRoot();
+        object.frozen().seed(bson);
+
+        return object;
+    }
+
+    private void admit(Node node) {
+        this.lock.lock();
+        try {
+            Node previous = this.nodes.put(node.key, node);
+            if (previous != null)
+                this.discard(previous);
+
+            this.clock.addLast(node);
+            this.weight += node.weight;
+
+            while (this.weight > this.maxWeight) {
+                Node candidate = this.clock.pollFirst();
+                if (candidate.removed) {
+                    this.stale--;
+                    continue;
+                }
+
+                if (candidate.referenced) { // Second chance.
+                    candidate.referenced = false;
+                    this.clock.addLast(candidate);
+                    continue;
+                }
+
+                this.nodes.remove(candidate.key, candidate);
+                candidate.removed = true;
+                this.weight -= candidate.weight;
+                this.evictions.increment();
+            }
+
+            if (this.stale > this.clock.size() / 2)
+                this.compact();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    // Replaced nodes are only marked, the clock drops them when the hand reaches them.
+    private void discard(Node node) {
+        node.removed = true;
+        this.weight -= node.weight;
+        this.stale++;
+    }
+
+    private void compact() {
+        this.clock.removeIf(node -> node.removed);
+        this.stale = 0;
+    }
+
+    private static final class Node {
+        private final Object key;
+        private final BsonCompoundObject object;
+        private final byte[] bson;
+        private final int weight;
+        private volatile boolean referenced;
+        private boolean removed; // Guarded by the lock.
+
+        private Node(Object key, BsonCompoundObject object, byte[] bson) {
+            this.key = key;
+            this.object = object;
+            this.bson = bson;
+            this.weight = bson.length;
+        }
+
+        private boolean matches(ByteBuffer bytes) {
+            return ByteBuffer.wrap(this.bson).equals(bytes.duplicate());
+        }
+    }
+
+    /**
+     * Counters since the creation of the cache.
+     */
+    public record Stats(long hits, long misses, long evictions, int size, long weight) {
+        public double hitRate() {
+            long requests = this.hits + this.misses;
+            return requests == 0 ? 1.0 : (double) this.hits / requests;
+        }
+    }
+}
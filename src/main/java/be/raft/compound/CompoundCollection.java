@@ -0,0 +1,448 @@
+package be.raft.compound;
+
+import com.google.common.base.Preconditions;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+
+/**
+ * In-memory set of compounds with secondary indexes on field paths.
+ * <p>
+ * Hash indexes answer equality lookups, sorted indexes answer equality and range lookups.
+ * A path missing from a compound is indexed as {@code null}. Queries combining several conditions
+ * start from the indexed condition matching the fewest compounds, and check the other conditions on those only.
+ * Conditions on paths without an index are answered by scanning the whole collection.
+ * <p>
+ * Equality is exact, an int never equals a long. Ranges compare numbers by value whatever their type,
+ * and only match values of the same kind as their bounds: numbers, strings, booleans or dates.
+ * <p>
+ * The collection owns its compounds: once inserted, they must only be modified through {@link #update(BsonCompoundObject, Consumer)}
+ * so the indexes follow. Compounds are compared by identity. A collection is not thread-safe.
+ */
+public final class CompoundCollection {
+    private static final Comparator<Object> ORDER = CompoundCollection::compare;
+
+    private final Map<BsonCompoundObject, Entry> entries = new IdentityHashMap<>();
+    private final List<Index> indexes = new ArrayList<>();
+
+    /**
+     * Adds a hash index on the path, for equality lookups.
+     */
+    public CompoundCollection addHashIndex(@NotNull String path) {
+        return this.addIndex(path, false);
+    }
+
+    /**
+     * Adds a sorted index on the path, for equality and range lookups.
+     */
+    public CompoundCollection addSortedIndex(@NotNull String path) {
+        return this.addIndex(path, true);
+    }
+
+    private CompoundCollection addIndex(String expression, boolean sorted) {
+        CompoundPath path = CompoundPath.compile(expression);
+        Preconditions.checkArgument(!path.isWildcard(), "Wildcard paths cannot be indexed: %s", path);
+
+        for (Index index : this.indexes) {
+            if (index.path.equals(path) && index.sorted == sorted)
+                return this;
+        }
+
+        Index index = new Index(path, sorted, this.indexes.size());
+        this.indexes.add(index);
+
+        for (Entry entry : this.entries.values()) {
+            entry.keys = Arrays.copyOf(entry.keys, this.indexes.size());
+            entry.keys[index.position] = CompoundCollection.key(path, entry.object);
+            index.add(entry.keys[index.position], entry);
+        }
+
+        return this;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the compound is already in the collection.
+     */
+    public void insert(@NotNull BsonCompoundObject object) {
+        Preconditions.checkNotNull(object);
+        Preconditions.checkArgument(!this.entries.containsKey(object), "Compound is already in the collection!");
+
+        Entry entry = new Entry(object, new Object[this.indexes.size()]);
+        for (Index index : this.indexes) {
+            entry.keys[index.position] = CompoundCollection.key(index.path, object);
+            index.add(entry.keys[index.position], entry);
+        }
+
+        this.entries.put(object, entry);
+    }
+
+    public void insertAll(@NotNull Collection<? extends BsonCompoundObject> objects) {
+        Preconditions.checkNotNull(objects);
+
+        for (BsonCompoundObject object : objects) {
+            this.insert(object);
+        }
+    }
+
+    /**
+     * Modifies the compound and updates the indexes whose key changed.
+     *
+     * @throws IllegalArgumentException if the compound is not in the collection.
+     */
+    public void update(@NotNull BsonCompoundObject object, @NotNull Consumer<? super BsonCompoundObject> mutator) {
+        Preconditions.checkNotNull(object);
+        Preconditions.checkNotNull(mutator);
+
+        Entry entry = this.entries.get(object);
+        Preconditions.checkArgument(entry != null, "Compound is not in the collection!");
+
+        mutator.accept(object);
+
+        for (Index index : this.indexes) {
+            Object previous = entry.keys[index.position];
+            Object key = CompoundCollection.key(index.path, object);
+            if (Objects.equals(previous, key))
+                continue;
+
+            index.remove(previous, entry);
+            index.add(key, entry);
+            entry.keys[index.position] = key;
+        }
+    }
+
+    public boolean remove(@NotNull BsonCompoundObject object) {
+        Preconditions.checkNotNull(object);
+
+        Entry entry = this.entries.remove(object);
+        if (entry == null)
+            return false;
+
+        for (Index index : this.indexes) {
+            index.remove(entry.keys[index.position], entry);
+        }
+
+        return true;
+    }
+
+    public void clear() {
+        this.entries.clear();
+
+        for (Index index : this.indexes) {
+            index.keys.clear();
+            index.unordered.clear();
+        }
+    }
+
+    public boolean contains(@NotNull BsonCompoundObject object) {
+        Preconditions.checkNotNull(object);
+
+        return this.entries.containsKey(object);
+    }
+
+    public int size() {
+        return this.entries.size();
+    }
+
+    public boolean isEmpty() {
+        return this.entries.isEmpty();
+    }
+
+    /**
+     * Compounds of the collection, in no particular order.
+     */
+    public Collection<BsonCompoundObject> objects() {
+        return Collections.unmodifiableSet(this.entries.keySet());
+    }
+
+    /**
+     * Compounds whose value at the path equals the given one, {@code null} matching missing values as well.
+     */
+    public List<BsonCompoundObject> findEqual(@NotNull String path, @Nullable Object value) {
+        return this.query().equal(path, value).find();
+    }
+
+    /**
+     * Compounds whose value at the path is within the bounds, a {@code null} bound leaves its side open.
+     */
+    public List<BsonCompoundObject> findRange(@NotNull String path, @Nullable Object from, boolean fromInclusive,
+                                              @Nullable Object to, boolean toInclusive) {
+        return this.query().range(path, from, fromInclusive, to, toInclusive).find();
+    }
+
+    /**
+     * Starts a query matching all of its conditions.
+     */
+    public Query query() {
+        return new Query();
+    }
+
+    // Keys are snapshots, later writes to the compound must not change the indexed values.
+    private static Object key(CompoundPath path, BsonCompoundObject object) {
+        Object value = path.value(object);
+        if (value instanceof BsonCompoundRaw raw)
+            return raw.decode();
+
+        return BsonCompoundTree.isContainer(value) ? BsonCompoundTree.deepCopy(value) : value;
+    }
+
+    private static Object storable(Object value) {
+        return value == null ? null : BsonCompoundElement.toStorable(value);
+    }
+
+    // Kinds of values that can be ordered, -1 for the others.
+    private static int rank(Object value) {
+        if (value == null)
+            return 0;
+
+        if (value instanceof Integer || value instanceof Long || value instanceof Double)
+            return 1;
+
+        if (value instanceof String)
+            return 2;
+
+        if (value instanceof Boolean)
+            return 3;
+
+        if (value instanceof Date)
+            return 4;
+
+        return -1;
+    }
+
+    private static int compare(Object first, Object second) {
+        int rank = CompoundCollection.rank(first);
+        int otherRank = CompoundCollection.rank(second);
+        if (rank != otherRank)
+            return Integer.compare(rank, otherRank);
+
+        return switch (rank) {
+            case 0 -> 0;
+            case 1 -> {
+                if (!(first instanceof Double) && !(second instanceof Double))
+                    yield Long.compare(((Number) first).longValue(), ((Number) second).longValue());
+
+                yield Double.compare(((Number) first).doubleValue(), ((Number) second).doubleValue());
+            }
+            case 2 -> ((String) first).compareTo((String) second);
+            case 3 -> Boolean.compare((Boolean) first, (Boolean) second);
+            default -> ((Date) first).compareTo((Date) second);
+        };
+    }
+
+    private Index index(CompoundPath path, boolean sorted) {
+        Index found = null;
+        for (Index index : this.indexes) {
+            if (!index.path.equals(path) || sorted && !index.sorted)
+                continue;
+
+            if (found == null || !index.sorted) // Hash indexes answer equality lookups directly.
+                found = index;
+        }
+
+        return found;
+    }
+
+    private static final class Entry {
+        private final BsonCompoundObject object;
+        private Object[] keys; // Indexed values, by index position.
+
+        private Entry(BsonCompoundObject object, Object[] keys) {
+            this.object = object;
+            this.keys = keys;
+        }
+    }
+
+    private static final class Index {
+        private final CompoundPath path;
+        private final boolean sorted;
+        private final int position;
+        private final Map<Object, Set<Entry>> keys;
+        private final Set<Entry> unordered = new LinkedHashSet<>(); // Values a sorted index cannot order.
+
+        private Index(CompoundPath path, boolean sorted, int position) {
+            this.path = path;
+            this.sorted = sorted;
+            this.position = position;
+            this.keys = sorted ? new TreeMap<>(ORDER) : new HashMap<>();
+        }
+
+        private void add(Object key, Entry entry) {
+            if (this.sorted && CompoundCollection.rank(key) < 0) {
+                this.unordered.add(entry);
+                return;
+            }
+
+            this.keys.computeIfAbsent(key, k -> new LinkedHashSet<>()).add(entry);
+        }
+
+        private void remove(Object key, Entry entry) {
+            if (this.sorted && CompoundCollection.rank(key) < 0) {
+                this.unordered.remove(entry);
+                return;
+            }
+
+            Set<Entry> entries = this.keys.get(key);
+            if (entries == null)
+                return;
+
+            entries.remove(entry);
+            if (entries.isEmpty())
+                this.keys.remove(key);
+        }
+
+        // Sorted indexes group numbers equal by value, entries are checked against the exact value afterwards.
+        private Collection<Entry> equal(Object value) {
+            if (this.sorted && CompoundCollection.rank(value) < 0)
+                return this.unordered;
+
+            Set<Entry> entries = this.keys.get(value);
+            return entries == null ? Set.of() : entries;
+        }
+
+        private Collection<Entry> range(Condition condition) {
+            NavigableMap<Object, Set<Entry>> keys = (NavigableMap<Object, Set<Entry>>) this.keys;
+            if (condition.from != null)
+                keys = keys.tailMap(condition.from, condition.fromInclusive);
+
+            if (condition.to != null)
+                keys = keys.headMap(condition.to, condition.toInclusive);
+
+            int rank = CompoundCollection.rank(condition.from != null ? condition.from : condition.to);
+
+            List<Entry> entries = new ArrayList<>();
+            for (Map.Entry<Object, Set<Entry>> bucket : keys.entrySet()) {
+                if (CompoundCollection.rank(bucket.getKey()) == rank) // Open sides stop at values of another kind.
+                    entries.addAll(bucket.getValue());
+            }
+
+            return entries;
+        }
+    }
+
+    private record Condition(CompoundPath path, Object value, boolean range, Object from, boolean fromInclusive,
+                             Object to, boolean toInclusive) {
+
+        private boolean matches(BsonCompoundObject object) {
+            Object value = CompoundCollection.key(this.path, object);
+            if (!this.range)
+                return Objects.equals(value, this.value);
+
+            Object bound = this.from != null ? this.from : this.to;
+            if (CompoundCollection.rank(value) != CompoundCollection.rank(bound))
+                return false;
+
+            if (this.from != null) {
+                int comparison = CompoundCollection.compare(value, this.from);
+                if (comparison < 0 || comparison == 0 && !this.fromInclusive)
+                    return false;
+            }
+
+            if (this.to != null) {
+                int comparison = CompoundCollection.compare(value, this.to);
+                return comparison < 0 || comparison == 0 && this.toInclusive;
+            }
+
+            return true;
+        }
+    }
+
+    /**
+     * Conjunction of conditions on the compounds of the collection.
+     */
+    public final class Query {
+        private final List<Condition> conditions = new ArrayList<>();
+
+        private Query() {
+        }
+
+        /**
+         * Value at the path equals the given one, {@code null} matching missing values as well.
+         */
+        public Query equal(@NotNull String path, @Nullable Object value) {
+            Preconditions.checkNotNull(path);
+
+            this.conditions.add(new Condition(CompoundPath.compile(path), CompoundCollection.storable(value), false, null, false, null, false));
+            return this;
+        }
+
+        /**
+         * Value at the path is within the bounds, a {@code null} bound leaves its side open.
+         *
+         * @throws IllegalArgumentException if both bounds are null, or not of the same orderable kind.
+         */
+        public Query range(@NotNull String path, @Nullable Object from, boolean fromInclusive, @Nullable Object to, boolean toInclusive) {
+            Preconditions.checkNotNull(path);
+            Preconditions.checkArgument(from != null || to != null, "At least one bound is required!");
+
+            Object lower = CompoundCollection.storable(from);
+            Object upper = CompoundCollection.storable(to);
+            Preconditions.checkArgument(CompoundCollection.rank(lower != null ? lower : upper) > 0, "Bounds cannot be ordered: %s", lower != null ? lower : upper);
+            Preconditions.checkArgument(lower == null || upper == null || CompoundCollection.rank(lower) == CompoundCollection.rank(upper),
+                    "Bounds are of different kinds: %s, %s", lower, upper);
+
+            this.conditions.add(new Condition(CompoundPath.compile(path), null, true, lower, fromInclusive, upper, toInclusive));
+            return this;
+        }
+
+        public Query greaterThan(@NotNull String path, @NotNull Object value) {
+            return this.range(path, Preconditions.checkNotNull(value), false, null, false);
+        }
+
+        public Query lessThan(@NotNull String path, @NotNull Object value) {
+            return this.range(path, null, false, Preconditions.checkNotNull(value), false);
+        }
+
+        /**
+         * Compounds matching every condition, a query without conditions matches the whole collection.
+         */
+        public List<BsonCompoundObject> find() {
+            Collection<Entry> candidates = null;
+
+            for (Condition condition : this.conditions) {
+                Index index = CompoundCollection.this.index(condition.path(), condition.range());
+                if (index == null)
+                    continue;
+
+                Collection<Entry> entries = condition.range() ? index.range(condition) : index.equal(condition.value());
+                if (candidates == null || entries.size() < candidates.size())
+                    candidates = entries;
+            }
+
+            if (candidates == null) // Nothing indexed, scan everything.
+                candidates = CompoundCollection.this.entries.values();
+
+            List<BsonCompoundObject> objects = new ArrayList<>();
+            for (Entry entry : candidates) {
+                if (this.matches(entry.object))
+                    objects.add(entry.object);
+            }
+
+            return objects;
+        }
+
+        private boolean matches(BsonCompoundObject object) {
+            for (Condition condition : this.conditions) {
+                if (!condition.matches(object))
+                    return false;
+            }
+
+            return true;
+        }
+    }
+}
@@ -0,0 +1,447 @@
+package be.raft.compound;
+
+import com.google.common.base.Preconditions;
+import fr.atlasworld.common.compound.CompoundArray;
+import fr.atlasworld.common.compound.CompoundElement;
+import fr.atlasworld.common.compound.CompoundObject;
+import org.bson.Document;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Minimal set of operations turning a compound object into another.
+ * <p>
+ * Both trees are walked once from the top, subtrees shared by both sides (clones) are skipped,
+ * only the changed fields are set or unset and arrays changing in length are spliced.
+ * Diffs can be shipped as a compact compound, or as a MongoDB update document, and applied in place.
+ */
+public final class CompoundDiff {
+    private static final String OPERATION = "op";
+    private static final String PATH = "path";
+    private static final String VALUE = "value";
+    private static final String INDEX = "index";
+    private static final String REMOVE = "remove";
+    private static final String INSERT = "insert";
+    private static final String TAIL = "tail";
+
+    private final List<Operation> operations;
+
+    private CompoundDiff(List<Operation> operations) {
+        this.operations = operations;
+    }
+
+    /**
+     * Computes the operations turning the source into the target, the values are copied from the target.
+     */
+    public static CompoundDiff between(@NotNull BsonCompoundObject source, @NotNull BsonCompoundObject target) {
+        Preconditions.checkNotNull(source);
+        Preconditions.checkNotNull(target);
+
+        Builder builder = new Builder(source.hashes(), target.hashes());
+        builder.diffDocuments(new String[0], source.document(), target.document());
+
+        return new CompoundDiff(Collections.unmodifiableList(builder.operations));
+    }
+
+    /**
+     * Diff setting the given paths to their current value, or unsetting them when absent.
+     */
+    static CompoundDiff ofPaths(Document root, List<String[]> paths) {
+        List<Operation> operations = new ArrayList<>(paths.size());
+
+        for (String[] path : paths) {
+            Object parent = root;
+            for (int i = 0; i < path.length - 1 && parent != null; i++) {
+                parent = CompoundDiff.child(parent, path[i]);
+            }
+
+            String key = path[path.length - 1];
+            if (parent instanceof Document document) {
+                if (document.containsKey(key))
+                    operations.add(new Operation(Type.SET, path, BsonCompoundTree.deepCopy(document.get(key)), 0, 0, false, null));
+                else
+                    operations.add(new Operation(Type.UNSET, path, null, 0, 0, false, null));
+            } else if (parent instanceof List<?> list) {
+                Object value = CompoundDiff.child(list, key);
+                if (value != null || CompoundDiff.isIndex(list, key))
+                    operations.add(new Operation(Type.SET, path, BsonCompoundTree.deepCopy(value), 0, 0, false, null));
+            }
+            // Otherwise an ancestor was removed or replaced, which is recorded on its own.
+        }
+
+        return new CompoundDiff(Collections.unmodifiableList(operations));
+    }
+
+    private static Object child(Object container, String key) {
+        if (container instanceof Document document)
+            return document.get(key);
+
+        if (container instanceof List<?> list && CompoundDiff.isIndex(list, key))
+            return list.get(Integer.parseInt(key));
+
+        return null;
+    }
+
+    private static boolean isIndex(List<?> list, String key) {
+        try {
+            int index = Integer.parseInt(key);
+            return index >= 0 && index < list.size();
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Reads a diff from its compound form, see {@link #toCompound()}.
+     */
+    public static CompoundDiff fromCompound(@NotNull CompoundArray compound) {
+        Preconditions.checkNotNull(compound);
+
+        List<Operation> operations = new ArrayList<>(compound.size());
+        for (CompoundElement element : compound) {
+            CompoundObject object = element.getAsObject();
+
+            String type = object.getAsPrimitive(OPERATION).getAsString();
+            String[] path = CompoundDiff.path(object.getAsArray(PATH));
+
+            switch (type) {
+                case "set" -> operations.add(new Operation(Type.SET, path, CompoundDiff.toStorable(object.get(VALUE)), 0, 0, false, null));
+                case "unset" -> operations.add(new Operation(Type.UNSET, path, null, 0, 0, false, null));
+                case "splice" -> operations.add(new Operation(Type.SPLICE, path,
+                        CompoundDiff.toStorable(object.get(INSERT)),
+                        object.getAsPrimitive(INDEX).getAsInt(),
+                        object.getAsPrimitive(REMOVE).getAsInt(),
+                        object.has(TAIL) && object.getAsPrimitive(TAIL).getAsBoolean(), null));
+                default -> throw new IllegalArgumentException("Unknown diff operation: " + type);
+            }
+        }
+
+        return new CompoundDiff(Collections.unmodifiableList(operations));
+    }
+
+    private static String[] path(CompoundArray segments) {
+        Preconditions.checkArgument(!segments.isEmpty(), "Empty diff path!");
+
+        String[] path = new String[segments.size()];
+        for (int i = 0; i < path.length; i++) {
+            path[i] = segments.get(i).getAsString();
+        }
+
+        return path;
+    }
+
+    private static Object toStorable(CompoundElement element) {
+        return BsonCompoundTree.deepCopy(BsonCompoundElement.toStorable(element));
+    }
+
+    public boolean isEmpty() {
+        return this.operations.isEmpty();
+    }
+
+    public int size() {
+        return this.operations.size();
+    }
+
+    /**
+     * Applies the operations to the given object, which must be in the state the diff was computed from.
+     *
+     * @throws IllegalStateException if a path of the diff is not present in the object.
+     */
+    public void applyTo(@NotNull BsonCompoundObject object) {
+        Preconditions.checkNotNull(object);
+
+        for (Operation operation : this.operations) {
+            operation.applyTo(object);
+        }
+    }
+
+    /**
+     * Compact compound form of the diff, an array of operations whose paths are arrays of keys and indexes.
+     */
+    public BsonCompoundArray toCompound() {
+        List<Object> operations = new ArrayList<>(this.operations.size());
+        for (Operation operation : this.operations) {
+            Document document = new Document(OPERATION, operation.type().name().toLowerCase());
+            document.put(PATH, new ArrayList<>(Arrays.asList(operation.path())));
+
+            switch (operation.type()) {
+                case SET -> document.put(VALUE, BsonCompoundTree.deepCopy(operation.value()));
+                case SPLICE -> {
+                    document.put(INDEX, operation.index());
+                    document.put(REMOVE, operation.remove());
+                    document.put(INSERT, BsonCompoundTree.deepCopy(operation.value()));
+
+                    if (operation.tail())
+                        document.put(TAIL, true);
+                }
+            }
+
+            operations.add(document);
+        }
+
+        return BsonCompoundArray.owned(operations);
+    }
+
+    /**
+     * MongoDB update document applying the diff.
+     * <p>
+     * Appends and truncations are expressed with {@code $push}, other splices set the whole array.
+     *
+     * @throws IllegalStateException if the diff was read from a compound and contains a splice only expressible by setting the whole array,
+     *                               or if a key contains a dot or starts with {@code $}, such keys cannot be addressed by update paths.
+     */
+    public Document toUpdate() {
+        Document set = new Document();
+        Document unset = new Document();
+        Document push = new Document();
+
+        for (Operation operation : this.operations) {
+            String path = CompoundDiff.updatePath(operation.path());
+
+            switch (operation.type()) {
+                case SET -> set.put(path, BsonCompoundTree.deepCopy(operation.value()));
+                case UNSET -> unset.put(path, "");
+                case SPLICE -> {
+                    List<?> inserted = (List<?>) operation.value();
+
+                    if (operation.tail() && operation.remove() == 0) { // Append.
+                        push.put(path, new Document("$each", BsonCompoundTree.deepCopy(inserted)));
+                    } else if (operation.tail() && inserted.isEmpty()) { // Truncation.
+                        push.put(path, new Document("$each", new ArrayList<>()).append("$slice", operation.index()));
+                    } else {
+                        Preconditions.checkState(operation.array() != null, "Splice of '%s' requires the whole array!", path);
+                        set.put(path, BsonCompoundTree.deepCopy(operation.array()));
+                    }
+                }
+            }
+        }
+
+        Document update = new Document();
+        if (!set.isEmpty())
+            update.put("$set", set);
+
+        if (!unset.isEmpty())
+            update.put("$unset", unset);
+
+        if (!push.isEmpty())
+            update.put("$push", push);
+
+        return update;
+    }
+
+    private static String updatePath(String[] path) {
+        for (String key : path) {
+            Preconditions.checkState(key.indexOf('.') < 0 && !key.startsWith("$"), "Key '%s' cannot be part of an update path!", key);
+        }
+
+        return String.join(".", path);
+    }
+
+    @Override
+    public String toString() {
+        return this.toCompound().toJson();
+    }
+
+    private enum Type {
+        SET,
+        UNSET,
+        SPLICE
+    }
+
+    /**
+     * @param value set value, or inserted elements of a splice.
+     * @param tail whether a splice reaches the end of the array.
+     * @param array whole resulting array of a splice that is neither an append nor a truncation.
+     */
+    private record Operation(Type type, String[] path, Object value, int index, int remove, boolean tail, List<Object> array) {
+
+        @SuppressWarnings("unchecked")
+        private void applyTo(BsonCompoundObject object) {
+            BsonCompoundContainer parent = this.parent(object);
+            String key = this.path[this.path.length - 1];
+
+            switch (this.type) {
+                case SET -> {
+                    Object value = BsonCompoundTree.deepCopy(this.value);
+
+                    if (parent instanceof BsonCompoundObject) {
+                        ((Document) parent.mutableStorage(key)).put(key, value);
+                    } else {
+                        List<Object> elements = ((BsonCompoundArray) parent).mutableElements();
+                        elements.set(this.index(elements, key), value);
+                    }
+                }
+                case UNSET -> {
+                    Preconditions.checkState(parent instanceof BsonCompoundObject, "Cannot unset array element: %s", this);
+                    ((Document) parent.mutableStorage(key)).remove(key);
+                }
+                case SPLICE -> {
+                    CompoundElement element = parent instanceof BsonCompoundObject parentObject
+                            ? parentObject.get(key)
+                            : ((BsonCompoundArray) parent).get(this.index(((BsonCompoundArray) parent).elements(), key));
+
+                    Preconditions.checkState(element instanceof BsonCompoundArray, "Not an array: %s", this);
+                    List<Object> elements = ((BsonCompoundArray) element).mutableElements();
+                    Preconditions.checkState(this.index + this.remove <= elements.size(), "Splice out of bounds: %s", this);
+
+                    elements.subList(this.index, this.index + this.remove).clear();
+                    elements.addAll(this.index, (List<Object>) BsonCompoundTree.deepCopy(this.value));
+                }
+            }
+        }
+
+        // Walks to the container holding the last path segment through linked compounds, so writes are tracked by the tree.
+        private BsonCompoundContainer parent(BsonCompoundObject object) {
+            BsonCompoundContainer container = object;
+
+            for (int i = 0; i < this.path.length - 1; i++) {
+                CompoundElement child;
+                if (container instanceof BsonCompoundObject parent)
+                    child = parent.get(this.path[i]);
+                else
+                    child = ((BsonCompoundArray) container).get(this.index(((BsonCompoundArray) container).elements(), this.path[i]));
+
+                Preconditions.checkState(child instanceof BsonCompoundContainer, "Path not found: %s", this);
+                container = (BsonCompoundContainer) child;
+            }
+
+            return container;
+        }
+
+        private int index(List<Object> elements, String segment) {
+            try {
+                int index = Integer.parseInt(segment);
+                if (index >= 0 && index < elements.size())
+                    return index;
+            } catch (NumberFormatException ignored) {
+            }
+
+            throw new IllegalStateException("Path not found: " + this);
+        }
+
+        @Override
+        public String toString() {
+            return this.type.name().toLowerCase() + " " + String.join(".", this.path);
+        }
+    }
+
+    private static final class Builder {
+        private final BsonCompoundHashCache sourceHashes;
+        private final BsonCompoundHashCache targetHashes;
+        private final List<Operation> operations = new ArrayList<>();
+
+        private Builder(BsonCompoundHashCache sourceHashes, BsonCompoundHashCache targetHashes) {
+            this.sourceHashes = sourceHashes;
+            this.targetHashes = targetHashes;
+        }
+
+        private void diffDocuments(String[] path, Document source, Document target) {
+            for (String key : source.keySet()) {
+                if (!target.containsKey(key))
+                    this.operations.add(new Operation(Type.UNSET, Builder.child(path, key), null, 0, 0, false, null));
+            }
+
+            for (Map.Entry<String, Object> entry : target.entrySet()) {
+                String key = entry.getKey();
+                Object value = entry.getValue();
+
+                if (!source.containsKey(key))
+                    this.set(Builder.child(path, key), value);
+                else
+                    this.diffValues(Builder.child(path, key), source.get(key), value);
+            }
+        }
+
+        // Containers are descended into rather than compared, so each value is visited once.
+        private void diffValues(String[] path, Object source, Object target) {
+            if (source == target)
+                return;
+
+            if (source instanceof Document sourceDocument && target instanceof Document targetDocument) {
+                this.diffDocuments(path, sourceDocument, targetDocument);
+                return;
+            }
+
+            // Packed arrays only hold primitives, they are cheaper to set as a whole.
+            if (source instanceof List<?> sourceList && target instanceof List<?> targetList
+                    && !BsonCompoundTree.isPacked(sourceList) && !BsonCompoundTree.isPacked(targetList)) {
+                this.diffArrays(path, sourceList, targetList);
+                return;
+            }
+
+            if (!this.same(source, target))
+                this.set(path, target);
+        }
+
+        private void diffArrays(String[] path, List<?> source, List<?> target) {
+            int sourceSize = source.size();
+            int targetSize = target.size();
+
+            if (sourceSize == targetSize) {
+                for (int i = 0; i < sourceSize; i++) {
+                    this.diffValues(Builder.child(path, Integer.toString(i)), source.get(i), target.get(i));
+                }
+                return;
+            }
+
+            int limit = Math.min(sourceSize, targetSize);
+
+            int prefix = 0;
+            while (prefix < limit && this.same(source.get(prefix), target.get(prefix))) {
+                prefix++;
+            }
+
+            int suffix = 0;
+            while (suffix < limit - prefix && this.same(source.get(sourceSize - suffix - 1), target.get(targetSize - suffix - 1))) {
+                suffix++;
+            }
+
+            List<Object> inserted = new ArrayList<>(target.subList(prefix, targetSize - suffix));
+            int removed = sourceSize - suffix - prefix;
+
+            boolean tail = suffix == 0;
+            boolean expressible = tail && (removed == 0 || inserted.isEmpty()); // Append or truncation.
+            List<Object> array = expressible ? null : Builder.deepCopy(new ArrayList<>(target));
+
+            this.operations.add(new Operation(Type.SPLICE, path, BsonCompoundTree.deepCopy(inserted), prefix, removed, tail, array));
+        }
+
+        private void set(String[] path, Object value) {
+            this.operations.add(new Operation(Type.SET, path, BsonCompoundTree.deepCopy(value), 0, 0, false, null));
+        }
+
+        // Shared containers are unchanged, containers with different hashes are changed, others need a full comparison.
+        // Only used where the values are not descended into: leaves, packed arrays and the ends of spliced arrays.
+        private boolean same(Object source, Object target) {
+            if (source == target)
+                return true;
+
+            if (!BsonCompoundTree.isContainer(source) || !BsonCompoundTree.isContainer(target))
+                return Objects.equals(source, target);
+
+            if (this.sourceHashes != null && this.targetHashes != null
+                    && this.sourceHashes.hash(source) != this.targetHashes.hash(target))
+                return false;
+
+            return source.equals(target);
+        }
+
+        @SuppressWarnings("unchecked")
+        private static List<Object> deepCopy(List<Object> list) {
+            return (List<Object>) BsonCompoundTree.deepCopy(list);
+        }
+
+        private static String[] child(String[] path, String key) {
+            String[] child = Arrays.copyOf(path, path.length + 1);
+            child[path.length] = key;
+
+            return child;
+        }
+    }
+}
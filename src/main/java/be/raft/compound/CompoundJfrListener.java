@@ -0,0 +1,173 @@
+package be.raft.compound;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Period;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Listener emitting the measurements as JDK Flight Recorder events, requires the {@code jdk.jfr} module.
+ * <p>
+ * Wrapper allocations are too frequent to be recorded one by one, the count of each period is emitted at its end,
+ * use {@link CompoundMetricsRecorder} for running totals.
+ * Close the listener to stop the periodic event.
+ */
+public class CompoundJfrListener implements CompoundMetricsListener, AutoCloseable {
+    private final Map<Class<? extends BsonCompoundElement>, LongAdder> wrapped = new ConcurrentHashMap<>();
+    private final Runnable wrapHook = this::emitWrapped;
+
+    public CompoundJfrListener() {
+        FlightRecorder.addPeriodicEvent(WrapEvent.class, this.wrapHook);
+    }
+
+    private void emitWrapped() {
+        for (Map.Entry<Class<? extends BsonCompoundElement>, LongAdder> entry : this.wrapped.entrySet()) {
+            long count = entry.getValue().sumThenReset();
+            if (count == 0)
+                continue;
+
+            WrapEvent event = new WrapEvent();
+            event.type = entry.getKey().getSimpleName();
+            event.count = count;
+            event.commit();
+        }
+    }
+
+    @Override
+    public void wrapped(Class<? extends BsonCompoundElement> type) {
+        this.wrapped.computeIfAbsent(type, key -> new LongAdder()).increment();
+    }
+
+    @Override
+    public void jsonWritten(int chars, long nanos) {
+        JsonEvent event = new JsonEvent();
+        if (!event.isEnabled())
+            return;
+
+        event.chars = chars;
+        event.latency = nanos;
+        event.commit();
+    }
+
+    @Override
+    public void cloned(int size) {
+        CloneEvent event = new CloneEvent();
+        if (!event.isEnabled())
+            return;
+
+        event.size = size;
+        event.commit();
+    }
+
+    @Override
+    public void encoded(int bytes, long nanos) {
+        CodecEvent event = new CodecEvent();
+        if (!event.isEnabled())
+            return;
+
+        event.operation = "encode";
+        event.bytes = bytes;
+        event.latency = nanos;
+        event.commit();
+    }
+
+    @Override
+    public void decoded(int bytes, long nanos) {
+        CodecEvent event = new CodecEvent();
+        if (!event.isEnabled())
+            return;
+
+        event.operation = "decode";
+        event.bytes = bytes;
+        event.latency = nanos;
+        event.commit();
+    }
+
+    @Override
+    public void document(int depth, int size) {
+        DocumentEvent event = new DocumentEvent();
+        if (!event.isEnabled())
+            return;
+
+        event.depth = depth;
+        event.size = size;
+        event.commit();
+    }
+
+    @Override
+    public void close() {
+        FlightRecorder.removePeriodicEvent(this.wrapHook);
+    }
+
+    @Name("be.raft.compound.Wrap")
+    @Label("Compound Wrappers")
+    @Category("Compound")
+    @Period("1 s")
+    @StackTrace(false)
+    static class WrapEvent extends Event {
+        @Label("Type")
+        String type;
+
+        @Label("Count")
+        @Description("Wrappers allocated since the previous event.")
+        long count;
+    }
+
+    @Name("be.raft.compound.Json")
+    @Label("Compound JSON")
+    @Category("Compound")
+    static class JsonEvent extends Event {
+        @Label("Characters")
+        int chars;
+
+        @Label("Latency")
+        @Timespan(Timespan.NANOSECONDS)
+        long latency;
+    }
+
+    @Name("be.raft.compound.Clone")
+    @Label("Compound Clone")
+    @Category("Compound")
+    static class CloneEvent extends Event {
+        @Label("Size")
+        int size;
+    }
+
+    @Name("be.raft.compound.Codec")
+    @Label("Compound Codec")
+    @Category("Compound")
+    static class CodecEvent extends Event {
+        @Label("Operation")
+        String operation;
+
+        @Label("Bytes")
+        @DataAmount
+        int bytes;
+
+        @Label("Latency")
+        @Timespan(Timespan.NANOSECONDS)
+        long latency;
+    }
+
+    @Name("be.raft.compound.Document")
+    @Label("Compound Document")
+    @Category("Compound")
+    @StackTrace(false)
+    static class DocumentEvent extends Event {
+        @Label("Depth")
+        int depth;
+
+        @Label("Size")
+        int size;
+    }
+}
@@ -0,0 +1,106 @@
+package be.raft.compound;
+
+import com.google.common.base.Preconditions;
+import org.bson.BsonBinaryReader;
+import org.bson.BsonBinaryWriter;
+import org.bson.BsonReader;
+import org.bson.BsonWriter;
+import org.bson.Document;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Optional instrumentation of the compound operations, reported to a {@link CompoundMetricsListener}.
+ * <p>
+ * Metrics are enabled by starting the JVM with {@code -Dbe.raft.compound.metrics=true},
+ * otherwise the probes are constant folded away by the JIT and cost nothing.
+ */
+public final class CompoundMetrics {
+    public static final String PROPERTY = "be.raft.compound.metrics";
+
+    static final boolean ENABLED = Boolean.getBoolean(PROPERTY);
+
+    private static volatile CompoundMetricsListener listener = new CompoundMetricsListener() {
+    };
+
+    private CompoundMetrics() {
+    }
+
+    public static boolean isEnabled() {
+        return ENABLED;
+    }
+
+    /**
+     * @throws IllegalStateException if metrics are disabled.
+     */
+    public static void setListener(@NotNull CompoundMetricsListener listener) {
+        Preconditions.checkNotNull(listener);
+        Preconditions.checkState(ENABLED, "Compound metrics are disabled, start the JVM with -D%s=true", PROPERTY);
+
+        CompoundMetrics.listener = listener;
+    }
+
+    public static CompoundMetricsListener getListener() {
+        return CompoundMetrics.listener;
+    }
+
+    static void wrapped(BsonCompoundElement element) {
+        CompoundMetrics.listener.wrapped(element.getClass());
+    }
+
+    static void jsonWritten(int chars, long nanos) {
+        CompoundMetrics.listener.jsonWritten(chars, nanos);
+    }
+
+    static void cloned(int size) {
+        CompoundMetrics.listener.cloned(size);
+    }
+
+    static void encoded(BsonCompoundObject object, int bytes, long nanos) {
+        CompoundMetricsListener listener = CompoundMetrics.listener;
+        listener.encoded(bytes, nanos);
+
+        if (!object.isRaw()) // Measuring a raw compound would decode it.
+            listener.document(CompoundMetrics.depth(object.document()), object.size());
+    }
+
+    static void decoded(Document document, int bytes, long nanos) {
+        CompoundMetricsListener listener = CompoundMetrics.listener;
+        listener.decoded(bytes, nanos);
+        listener.document(CompoundMetrics.depth(document), document.size());
+    }
+
+    static int position(BsonWriter writer) {
+        return writer instanceof BsonBinaryWriter binary ? binary.getBsonOutput().getPosition() : -1;
+    }
+
+    static int position(BsonReader reader) {
+        return reader instanceof BsonBinaryReader binary ? binary.getBsonInput().getPosition() : -1;
+    }
+
+    private static int depth(Object value) {
+        int depth = 0;
+
+        if (value instanceof Map<?, ?> map) {
+            for (Object child : map.values()) {
+                depth = Math.max(depth, CompoundMetrics.depth(child));
+            }
+
+            return depth + 1;
+        }
+
+        if (value instanceof List<?> list) {
+            if (!BsonCompoundTree.isPacked(list)) {
+                for (Object child : list) {
+                    depth = Math.max(depth, CompoundMetrics.depth(child));
+                }
+            }
+
+            return depth + 1;
+        }
+
+        return 0;
+    }
+}
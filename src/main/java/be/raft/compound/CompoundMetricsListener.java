@@ -0,0 +1,43 @@
+package be.raft.compound;
+
+/**
+ * Receives the measurements of the compound operations, see {@link CompoundMetrics}.
+ * <p>
+ * Methods are called on the thread performing the operation and must be fast and thread-safe.
+ */
+public interface CompoundMetricsListener {
+
+    /**
+     * A compound wrapping a stored value was allocated by {@link BsonCompoundElement#toCompound(Object)}.
+     * Shared instances, such as nulls, booleans and small ints, are not reported.
+     */
+    default void wrapped(Class<? extends BsonCompoundElement> type) {
+    }
+
+    default void jsonWritten(int chars, long nanos) {
+    }
+
+    /**
+     * A compound of the given number of fields or elements was cloned.
+     */
+    default void cloned(int size) {
+    }
+
+    /**
+     * A compound object was encoded, bytes is {@code -1} if the writer does not expose its position.
+     */
+    default void encoded(int bytes, long nanos) {
+    }
+
+    /**
+     * A compound object was decoded, bytes is {@code -1} if the reader does not expose its position.
+     */
+    default void decoded(int bytes, long nanos) {
+    }
+
+    /**
+     * Shape of an encoded or decoded document, depth counts nested documents and arrays.
+     */
+    default void document(int depth, int size) {
+    }
+}
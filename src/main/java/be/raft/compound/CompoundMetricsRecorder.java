@@ -0,0 +1,184 @@
+package be.raft.compound;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Listener aggregating the measurements into counters and histograms.
+ */
+public class CompoundMetricsRecorder implements CompoundMetricsListener {
+    private final Map<Class<? extends BsonCompoundElement>, LongAdder> wrapped = new ConcurrentHashMap<>();
+
+    private final Histogram jsonChars = new Histogram();
+    private final Histogram jsonNanos = new Histogram();
+    private final Histogram cloneSizes = new Histogram();
+    private final Histogram encodeBytes = new Histogram();
+    private final Histogram encodeNanos = new Histogram();
+    private final Histogram decodeBytes = new Histogram();
+    private final Histogram decodeNanos = new Histogram();
+    private final Histogram documentDepths = new Histogram();
+    private final Histogram documentSizes = new Histogram();
+
+    @Override
+    public void wrapped(Class<? extends BsonCompoundElement> type) {
+        this.wrapped.computeIfAbsent(type, key -> new LongAdder()).increment();
+    }
+
+    @Override
+    public void jsonWritten(int chars, long nanos) {
+        this.jsonChars.record(chars);
+        this.jsonNanos.record(nanos);
+    }
+
+    @Override
+    public void cloned(int size) {
+        this.cloneSizes.record(size);
+    }
+
+    @Override
+    public void encoded(int bytes, long nanos) {
+        if (bytes >= 0)
+            this.encodeBytes.record(bytes);
+
+        this.encodeNanos.record(nanos);
+    }
+
+    @Override
+    public void decoded(int bytes, long nanos) {
+        if (bytes >= 0)
+            this.decodeBytes.record(bytes);
+
+        this.decodeNanos.record(nanos);
+    }
+
+    @Override
+    public void document(int depth, int size) {
+        this.documentDepths.record(depth);
+        this.documentSizes.record(size);
+    }
+
+    /**
+     * Number of compounds of the given type allocated to wrap a stored value since this recorder was installed,
+     * shared instances excluded.
+     */
+    public long wrappedCount(@NotNull Class<? extends BsonCompoundElement> type) {
+        LongAdder adder = this.wrapped.get(type);
+        return adder == null ? 0 : adder.sum();
+    }
+
+    public long wrappedCount() {
+        long total = 0;
+        for (LongAdder adder : this.wrapped.values()) {
+            total += adder.sum();
+        }
+
+        return total;
+    }
+
+    public Histogram jsonChars() {
+        return this.jsonChars;
+    }
+
+    public Histogram jsonNanos() {
+        return this.jsonNanos;
+    }
+
+    public Histogram cloneSizes() {
+        return this.cloneSizes;
+    }
+
+    public Histogram encodeBytes() {
+        return this.encodeBytes;
+    }
+
+    public Histogram encodeNanos() {
+        return this.encodeNanos;
+    }
+
+    public Histogram decodeBytes() {
+        return this.decodeBytes;
+    }
+
+    public Histogram decodeNanos() {
+        return this.decodeNanos;
+    }
+
+    public Histogram documentDepths() {
+        return this.documentDepths;
+    }
+
+    public Histogram documentSizes() {
+        return this.documentSizes;
+    }
+
+    /**
+     * Concurrent histogram of non-negative values, in power of two buckets.
+     */
+    public static final class Histogram {
+        private final LongAdder[] buckets = new LongAdder[Long.SIZE];
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        private Histogram() {
+            for (int i = 0; i < this.buckets.length; i++) {
+                this.buckets[i] = new LongAdder();
+            }
+        }
+
+        void record(long value) {
+            value = Math.max(0, value);
+
+            this.buckets[Long.SIZE - 1 - Long.numberOfLeadingZeros(value | 1)].increment();
+            this.count.increment();
+            this.sum.add(value);
+            this.max.accumulate(value);
+        }
+
+        public long count() {
+            return this.count.sum();
+        }
+
+        public long sum() {
+            return this.sum.sum();
+        }
+
+        public long max() {
+            return this.max.get();
+        }
+
+        public double mean() {
+            long count = this.count();
+            return count == 0 ? 0 : (double) this.sum() / count;
+        }
+
+        /**
+         * Upper bound of the bucket holding the given percentile, between 0 and 100.
+         */
+        public long percentile(double percentile) {
+            long count = this.count();
+            if (count == 0)
+                return 0;
+
+            long rank = (long) Math.ceil(count * Math.min(100, Math.max(0, percentile)) / 100);
+            long seen = 0;
+            for (int i = 0; i < this.buckets.length; i++) {
+                seen += this.buckets[i].sum();
+                if (seen >= rank)
+                    return Math.min(this.max(), i == Long.SIZE - 1 ? Long.MAX_VALUE : (2L << i) - 1);
+            }
+
+            return this.max();
+        }
+
+        @Override
+        public String toString() {
+            return "count=" + this.count() + ", mean=" + this.mean() + ", p50=" + this.percentile(50)
+                    + ", p99=" + this.percentile(99) + ", max=" + this.max();
+        }
+    }
+}
@@ -0,0 +1,335 @@
+package be.raft.compound;
+
+import com.google.common.base.Preconditions;
+import fr.atlasworld.common.compound.CompoundElement;
+import org.bson.Document;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Path to a nested value of a compound, compiled once from an expression such as {@code "a.b[3].c"}.
+ * <p>
+ * Fields are separated by dots and array elements selected with {@code [index]}.
+ * {@code *} matches every field of an object and {@code [*]} every element of an array, such paths can only be streamed.
+ * <p>
+ * Paths are evaluated on the compound storage directly, raw compounds are walked without being decoded,
+ * only the returned value is wrapped.
+ */
+public final class CompoundPath {
+    private static final Object ANY_FIELD = new Object();
+    private static final Object ANY_INDEX = new Object();
+    private static final Object MISSING = new Object();
+
+    private final String expression;
+    private final Object[] segments; // Field names, indexes or wildcards.
+    private final boolean wildcard;
+
+    private CompoundPath(String expression, Object[] segments) {
+        this.expression = expression;
+        this.segments = segments;
+
+        boolean wildcard = false;
+        for (Object segment : segments) {
+            wildcard |= segment == ANY_FIELD || segment == ANY_INDEX;
+        }
+
+        this.wildcard = wildcard;
+    }
+
+    public static CompoundPath compile(@NotNull String expression) {
+        Preconditions.checkNotNull(expression);
+
+        List<Object> segments = new ArrayList<>();
+        int length = expression.length();
+        int i = 0;
+
+        while (i < length) {
+            int start = i;
+            while (i < length && expression.charAt(i) != '.' && expression.charAt(i) != '[') {
+                i++;
+            }
+
+            String name = expression.substring(start, i);
+            if (!name.isEmpty())
+                segments.add(name.equals("*") ? ANY_FIELD : name);
+            else if (start != 0 || i == length || expression.charAt(i) != '[') // Only a leading index may omit the field.
+                throw CompoundPath.invalid(expression, i);
+
+            while (i < length && expression.charAt(i) == '[') {
+                int close = expression.indexOf(']', i);
+                if (close < 0)
+                    throw CompoundPath.invalid(expression, i);
+
+                segments.add(CompoundPath.parseIndex(expression, i + 1, close));
+                i = close + 1;
+            }
+
+            if (i < length) {
+                if (expression.charAt(i) != '.' || i == length - 1)
+                    throw CompoundPath.invalid(expression, i);
+
+                i++;
+            }
+        }
+
+        if (segments.isEmpty())
+            throw CompoundPath.invalid(expression, 0);
+
+        return new CompoundPath(expression, segments.toArray());
+    }
+
+    private static Object parseIndex(String expression, int start, int end) {
+        String index = expression.substring(start, end);
+        if (index.equals("*"))
+            return ANY_INDEX;
+
+        try {
+            int value = Integer.parseInt(index);
+            if (value >= 0)
+                return value;
+        } catch (NumberFormatException ignored) {
+        }
+
+        throw CompoundPath.invalid(expression, start);
+    }
+
+    private static IllegalArgumentException invalid(String expression, int position) {
+        return new IllegalArgumentException("Invalid compound path '" + expression + "' at " + position);
+    }
+
+    public boolean exists(@NotNull CompoundElement root) {
+        if (this.wildcard)
+            return this.select(root).findAny().isPresent();
+
+        return this.resolve(root) != MISSING;
+    }
+
+    /**
+     * Value at this path.
+     *
+     * @throws NoSuchElementException if there is no value at this path.
+     */
+    public CompoundElement get(@NotNull CompoundElement root) {
+        Object value = this.require(root);
+        if (!CompoundPath.isNested(value))
+            return BsonCompoundElement.toCompound(value);
+
+        Object[] keys = this.segments.clone(); // Concrete path, there are no wildcards here.
+        return CompoundPath.linked(root, keys);
+    }
+
+    public int getInt(@NotNull CompoundElement root) {
+        if (this.require(root) instanceof Integer value)
+            return value;
+
+        throw new UnsupportedOperationException("Value is not integer: " + this);
+    }
+
+    public long getLong(@NotNull CompoundElement root) {
+        if (this.require(root) instanceof Long value)
+            return value;
+
+        throw new UnsupportedOperationException("Value is not long: " + this);
+    }
+
+    public double getDouble(@NotNull CompoundElement root) {
+        if (this.require(root) instanceof Double value)
+            return value;
+
+        throw new UnsupportedOperationException("Value is not double: " + this);
+    }
+
+    public boolean getBoolean(@NotNull CompoundElement root) {
+        if (this.require(root) instanceof Boolean value)
+            return value;
+
+        throw new UnsupportedOperationException("Value is not a boolean: " + this);
+    }
+
+    public String getString(@NotNull CompoundElement root) {
+        if (this.require(root) instanceof String value)
+            return value;
+
+        throw new UnsupportedOperationException("Value is not string: " + this);
+    }
+
+    /**
+     * Streams every value matching this path, lazily walking the wildcards.
+     */
+    public Stream<CompoundElement> stream(@NotNull CompoundElement root) {
+        return this.select(root).map(match -> {
+            if (!CompoundPath.isNested(match.value()))
+                return BsonCompoundElement.toCompound(match.value());
+
+            return CompoundPath.linked(root, match.keys());
+        });
+    }
+
+    public boolean isWildcard() {
+        return this.wildcard;
+    }
+
+    /**
+     * Stored value at this path, {@code null} if there is none.
+     */
+    Object value(CompoundElement root) {
+        Preconditions.checkState(!this.wildcard, "Wildcard paths can only be streamed: %s", this);
+
+        Object value = this.resolve(root);
+        return value == MISSING ? null : value;
+    }
+
+    private Object require(CompoundElement root) {
+        Preconditions.checkState(!this.wildcard, "Wildcard paths can only be streamed: %s", this);
+
+        Object value = this.resolve(root);
+        if (value == MISSING)
+            throw new NoSuchElementException("No value at path: " + this);
+
+        return value;
+    }
+
+    private Object resolve(CompoundElement root) {
+        Object value = CompoundPath.storage(root);
+
+        for (Object segment : this.segments) {
+            value = CompoundPath.child(value, segment);
+            if (value == MISSING)
+                return MISSING;
+        }
+
+        return value;
+    }
+
+    private Stream<Match> select(CompoundElement root) {
+        return this.select(CompoundPath.storage(root), new Object[this.segments.length], 0);
+    }
+
+    private Stream<Match> select(Object value, Object[] keys, int index) {
+        if (index == this.segments.length)
+            return Stream.of(new Match(value, keys));
+
+        Object segment = this.segments[index];
+
+        if (segment == ANY_FIELD) {
+            List<Map.Entry<String, Object>> entries = CompoundPath.entries(value);
+            return entries.stream().flatMap(entry -> {
+                Object[] branch = keys.clone();
+                branch[index] = entry.getKey();
+
+                return this.select(entry.getValue(), branch, index + 1);
+            });
+        }
+
+        if (segment == ANY_INDEX) {
+            if (!(value instanceof List<?> list))
+                return Stream.empty();
+
+            return IntStream.range(0, list.size()).boxed().flatMap(element -> {
+                Object[] branch = keys.clone();
+                branch[index] = element;
+
+                return this.select(list.get(element), branch, index + 1);
+            });
+        }
+
+        Object child = CompoundPath.child(value, segment);
+        if (child == MISSING)
+            return Stream.empty();
+
+        keys[index] = segment;
+        return this.select(child, keys, index + 1);
+    }
+
+    private static Object storage(CompoundElement root) {
+        Preconditions.checkNotNull(root);
+
+        if (root instanceof BsonCompoundObject object)
+            return object.isRaw() ? object.raw() : object.document();
+
+        if (root instanceof BsonCompoundArray array)
+            return array.elements();
+
+        throw new IllegalArgumentException("Only BSON backed compound objects and arrays are supported!");
+    }
+
+    private static Object child(Object value, Object segment) {
+        if (segment instanceof String key) {
+            if (value instanceof Document document) {
+                Object child = document.get(key);
+                return child != null || document.containsKey(key) ? child : MISSING;
+            }
+
+            if (value instanceof BsonCompoundRaw raw) {
+                Object child = raw.get(key);
+                return child != null || raw.has(key) ? child : MISSING;
+            }
+
+            return MISSING;
+        }
+
+        int index = (Integer) segment;
+        if (value instanceof List<?> list && index < list.size())
+            return list.get(index);
+
+        return MISSING;
+    }
+
+    private static List<Map.Entry<String, Object>> entries(Object value) {
+        if (value instanceof Document document)
+            return new ArrayList<>(document.entrySet());
+
+        if (value instanceof BsonCompoundRaw raw)
+            return raw.entries();
+
+        return List.of();
+    }
+
+    private static boolean isNested(Object value) {
+        return BsonCompoundTree.isContainer(value) || value instanceof BsonCompoundRaw;
+    }
+
+    // Nested values are returned through the compounds of their parents, so writes to them are tracked by the tree.
+    private static CompoundElement linked(CompoundElement root, Object[] keys) {
+        CompoundElement element = root;
+
+        for (Object key : keys) {
+            if (key instanceof String field)
+                element = ((BsonCompoundObject) element).get(field);
+            else
+                element = ((BsonCompoundArray) element).get((Integer) key);
+        }
+
+        return element;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == this)
+            return true;
+
+        if (!(obj instanceof CompoundPath other))
+            return false;
+
+        return other.expression.equals(this.expression);
+    }
+
+    @Override
+    public int hashCode() {
+        return this.expression.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return this.expression;
+    }
+
+    private record Match(Object value, Object[] keys) {
+    }
+}
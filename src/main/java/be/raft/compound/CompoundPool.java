@@ -0,0 +1,125 @@
+package be.raft.compound;
+
+import com.google.common.base.Preconditions;
+import org.bson.Document;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Recycles the documents and lists of short-lived compounds, such as the ones built, encoded and dropped per message.
+ * <p>
+ * Compounds are {@link #acquire() acquired} from the pool, filled and {@link #release(BsonCompoundObject) released}
+ * once encoded. Objects and arrays added to an acquired compound through {@code addObject} and {@code addArray}
+ * take their containers from the pool as well, and these are recycled with it.
+ * <p>
+ * Ownership: a released compound, and every compound read from it, must no longer be used.
+ * Writing to them throws, reading from them may see the content of another compound.
+ * Containers of a compound that were cloned, handed out through {@link BsonCompoundObject#getDocument()},
+ * or added from another compound may be referenced elsewhere, those are never recycled.
+ * <p>
+ * A pool is not thread-safe, use one per thread through {@link #local()} or one per scope.
+ */
+public final class CompoundPool {
+    private static final int DEFAULT_CAPACITY = 256;
+    private static final int DEFAULT_MAX_CONTAINER_SIZE = 1024;
+    private static final Document RELEASED = new Document(); // Storage of released compounds, never written to.
+    private static final ThreadLocal<CompoundPool> LOCAL = ThreadLocal.withInitial(CompoundPool::new);
+
+    private final ArrayDeque<Document> documents = new ArrayDeque<>();
+    private final ArrayDeque<List<Object>> lists = new ArrayDeque<>();
+    private final int capacity;
+    private final int maxContainerSize;
+
+    /**
+     * @param capacity         maximum number of documents, and of lists, kept by the pool.
+     * @param maxContainerSize containers which held more entries are dropped instead of kept at their capacity.
+     */
+    public CompoundPool(int capacity, int maxContainerSize) {
+        Preconditions.checkArgument(capacity >= 0, "Capacity must not be negative: %s", capacity);
+        Preconditions.checkArgument(maxContainerSize >= 0, "Max container size must not be negative: %s", maxContainerSize);
+
+        this.capacity = capacity;
+        this.maxContainerSize = maxContainerSize;
+    }
+
+    public CompoundPool() {
+        this(DEFAULT_CAPACITY, DEFAULT_MAX_CONTAINER_SIZE);
+    }
+
+    /**
+     * Pool of the current thread.
+     */
+    public static CompoundPool local() {
+        return LOCAL.get();
+    }
+
+    /**
+     * Empty compound owned by the caller until it is released.
+     */
+    public BsonCompoundObject acquire() {
+        BsonCompoundObject object = BsonCompoundObject.owned(this.document());
+        object.pool(this);
+
+        return object;
+    }
+
+    /**
+     * Gives the containers of the compound back to the pool, see the ownership rules of this class.
+     *
+     * @throws IllegalArgumentException if the compound was not acquired from this pool.
+     * @throws IllegalStateException    if the compound was already released.
+     */
+    public void release(@NotNull BsonCompoundObject object) {
+        Preconditions.checkNotNull(object);
+        Preconditions.checkArgument(object.pool() == this, "Compound was not acquired from this pool!");
+        Preconditions.checkState(!object.isRaw() && object.storage() != RELEASED, "Compound was already released!");
+
+        boolean exclusive = object.isExclusive();
+        Document document = object.document();
+        object.release(RELEASED);
+
+        if (exclusive)
+            this.recycle(document);
+    }
+
+    Document document() {
+        Document document = this.documents.poll();
+        return document == null ? new Document() : document;
+    }
+
+    List<Object> list() {
+        List<Object> list = this.lists.poll();
+        return list == null ? new ArrayList<>() : list;
+    }
+
+    // Only plain documents and lists are recycled, shaped documents and packed arrays are dropped.
+    private void recycle(Object container) {
+        if (container instanceof Document document) {
+            for (Object value : document.values()) {
+                this.recycle(value);
+            }
+
+            if (document.getClass() == Document.class && document.size() <= this.maxContainerSize && this.documents.size() < this.capacity) {
+                document.clear();
+                this.documents.push(document);
+            }
+        } else if (container instanceof List<?> list) {
+            for (Object value : list) {
+                this.recycle(value);
+            }
+
+            if (list.getClass() == ArrayList.class && list.size() <= this.maxContainerSize && this.lists.size() < this.capacity) {
+                list.clear();
+                this.lists.push(this.castList(list));
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Object> castList(List<?> list) {
+        return (List<Object>) list;
+    }
+}
@@ -0,0 +1,74 @@
+package be.raft.compound;
+
+import com.google.common.base.Preconditions;
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Set of dotted field paths to decode, see {@link BsonCompoundCodec#decode(ByteBuffer, CompoundProjection)}.
+ * <p>
+ * A path includes its whole subtree, paths through arrays apply to every embedded document of the array.
+ */
+public final class CompoundProjection {
+    private final Map<String, CompoundProjection> fields;
+    private boolean included;
+
+    private CompoundProjection() {
+        this.fields = new LinkedHashMap<>();
+    }
+
+    public static CompoundProjection of(@NotNull String... paths) {
+        Preconditions.checkNotNull(paths);
+
+        return CompoundProjection.of(Arrays.asList(paths));
+    }
+
+    public static CompoundProjection of(@NotNull Collection<String> paths) {
+        Preconditions.checkNotNull(paths);
+        Preconditions.checkArgument(!paths.isEmpty(), "Projection requires at least one path!");
+
+        CompoundProjection root = new CompoundProjection();
+        for (String path : paths) {
+            Preconditions.checkNotNull(path);
+
+            CompoundProjection node = root;
+            for (String field : path.split("\\.", -1)) {
+                Preconditions.checkArgument(!field.isEmpty(), "Invalid projection path: '%s'", path);
+
+                node = node.fields.computeIfAbsent(field, key -> new CompoundProjection());
+            }
+
+            node.included = true;
+        }
+
+        return root;
+    }
+
+    /**
+     * Projection of the given field, {@code null} if the field is not projected.
+     */
+    CompoundProjection get(String field) {
+        return this.fields.get(field);
+    }
+
+    int size() {
+        return this.fields.size();
+    }
+
+    /**
+     * Whether the whole subtree is included.
+     */
+    boolean isIncluded() {
+        return this.included;
+    }
+
+    @Override
+    public String toString() {
+        return this.fields.toString();
+    }
+}
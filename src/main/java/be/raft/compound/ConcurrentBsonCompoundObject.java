@@ -0,0 +1,533 @@
+package be.raft.compound;
+
+import com.google.common.base.Preconditions;
+import fr.atlasworld.common.compound.CompoundArray;
+import fr.atlasworld.common.compound.CompoundElement;
+import fr.atlasworld.common.compound.CompoundNull;
+import fr.atlasworld.common.compound.CompoundObject;
+import fr.atlasworld.common.compound.CompoundPrimitive;
+import org.bson.Document;
+import org.bson.types.Binary;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+
+/**
+ * Thread-safe compound object, reads are lock-free and writes only contend on the same key.
+ * <p>
+ * Fields keep their insertion order when encoded or iterated: the order of the inserting thread and of threads
+ * ordered by synchronization, to the resolution of {@link System#nanoTime()}, concurrent insertions are ordered arbitrarily.
+ * Nested objects are concurrent as well, arrays are stored as copies and read as snapshots, replace them to update them.
+ * Compounds added to this object, concurrent ones included, are copied.
+ */
+public class ConcurrentBsonCompoundObject implements CompoundObject {
+    // Insertion sequence of each thread, breaks ties between insertions at the same nanoTime without a shared counter.
+    private static final ThreadLocal<long[]> SEQUENCES = ThreadLocal.withInitial(() -> new long[1]);
+
+    private final Map<String, Slot> fields;
+
+    public ConcurrentBsonCompoundObject() {
+        this.fields = new ConcurrentHashMap<>();
+    }
+
+    public ConcurrentBsonCompoundObject(@NotNull Map<String, ?> values) {
+        Preconditions.checkNotNull(values);
+
+        this.fields = new ConcurrentHashMap<>(Math.max(16, (int) (values.size() / 0.75f) + 1));
+
+        for (Map.Entry<String, ?> entry : values.entrySet()) {
+            this.put(Preconditions.checkNotNull(entry.getKey()), ConcurrentBsonCompoundObject.toStorable(entry.getValue()));
+        }
+    }
+
+    private void put(String key, Object storable) {
+        Object value = ConcurrentBsonCompoundObject.toConcurrent(storable);
+        this.fields.compute(key, (k, slot) -> Slot.of(slot, value));
+    }
+
+    // Documents become concurrent objects, lists are copied so they are never mutated once stored.
+    // Concurrent objects are copied as well, storing one as is could make this object contain itself.
+    private static Object toConcurrent(Object storable) {
+        if (storable instanceof Document document)
+            return new ConcurrentBsonCompoundObject(document);
+
+        if (storable instanceof ConcurrentBsonCompoundObject object)
+            return new ConcurrentBsonCompoundObject(object.toDocument());
+
+        if (storable instanceof List<?>)
+            return BsonCompoundTree.deepCopy(storable);
+
+        return storable;
+    }
+
+    private static CompoundElement toCompound(Object value) {
+        if (value instanceof ConcurrentBsonCompoundObject object)
+            return object;
+
+        if (value instanceof List<?>) // Snapshot, the stored list is never handed out.
+            return BsonCompoundElement.toOwnedCompound(BsonCompoundTree.deepCopy(value));
+
+        return BsonCompoundElement.toCompound(value);
+    }
+
+    // Containers of BSON compounds are read without escaping them, toConcurrent copies them.
+    private static Object toStorable(Object value) {
+        if (value instanceof ConcurrentBsonCompoundObject)
+            return value;
+
+        if (value instanceof BsonCompoundObject object)
+            return object.document();
+
+        if (value instanceof BsonCompoundArray array)
+            return array.elements();
+
+        return BsonCompoundElement.toStorable(value);
+    }
+
+    @Override
+    public CompoundElement remove(@NotNull String key) {
+        Preconditions.checkNotNull(key);
+
+        Slot slot = this.fields.remove(key);
+        return ConcurrentBsonCompoundObject.toCompound(slot == null ? null : slot.value());
+    }
+
+    @Override
+    public CompoundObject addObject(@NotNull String key, @NotNull Consumer<CompoundObject> builder) {
+        Preconditions.checkNotNull(key);
+        Preconditions.checkNotNull(builder);
+
+        ConcurrentBsonCompoundObject object = new ConcurrentBsonCompoundObject();
+        builder.accept(object);
+
+        this.fields.compute(key, (k, slot) -> Slot.of(slot, object));
+        return this;
+    }
+
+    @Override
+    public CompoundObject addArray(@NotNull String key, @NotNull Consumer<CompoundArray> builder) {
+        Preconditions.checkNotNull(key);
+        Preconditions.checkNotNull(builder);
+
+        BsonCompoundArray array = new BsonCompoundArray();
+        builder.accept(array);
+
+        List<Object> elements = array.getElements(); // Not referenced by anything else, stored as is.
+        this.fields.compute(key, (k, slot) -> Slot.of(slot, elements));
+        return this;
+    }
+
+    @Override
+    public CompoundObject add(@NotNull String key, @NotNull CompoundElement value) {
+        Preconditions.checkNotNull(key);
+        Preconditions.checkNotNull(value);
+
+        this.put(key, ConcurrentBsonCompoundObject.toStorable(value));
+        return this;
+    }
+
+    @Override
+    public CompoundObject add(@NotNull String key, boolean value) {
+        Preconditions.checkNotNull(key);
+
+        this.put(key, value);
+        return this;
+    }
+
+    @Override
+    public CompoundObject add(@NotNull String key, double value) {
+        Preconditions.checkNotNull(key);
+
+        this.put(key, value);
+        return this;
+    }
+
+    @Override
+    public CompoundObject add(@NotNull String key, long value) {
+        Preconditions.checkNotNull(key);
+
+        this.put(key, value);
+        return this;
+    }
+
+    @Override
+    public CompoundObject add(@NotNull String key, int value) {
+        Preconditions.checkNotNull(key);
+
+        this.put(key, value);
+        return this;
+    }
+
+    @Override
+    public CompoundObject add(@NotNull String key, byte value) {
+        Preconditions.checkNotNull(key);
+
+        this.put(key, new Binary(new byte[]{value}));
+        return this;
+    }
+
+    @Override
+    public CompoundObject add(@NotNull String key, byte[] value) {
+        Preconditions.checkNotNull(key);
+        Preconditions.checkNotNull(value);
+
+        this.put(key, new Binary(value));
+        return this;
+    }
+
+    @Override
+    public CompoundObject add(@NotNull String key, char value) {
+        Preconditions.checkNotNull(key);
+
+        this.put(key, String.valueOf(value));
+        return this;
+    }
+
+    @Override
+    public CompoundObject add(@NotNull String key, @NotNull String value) {
+        Preconditions.checkNotNull(key);
+        Preconditions.checkNotNull(value);
+
+        this.put(key, value);
+        return this;
+    }
+
+    /**
+     * Atomically replaces the value of the key, see {@link Map#compute(Object, BiFunction)}.
+     * The current value is {@code null} when absent, returning {@code null} removes the key.
+     * <p>
+     * The function is called while the key is locked, it must be short and must not write to this object.
+     *
+     * @return the new value, {@code null} if removed.
+     */
+    public CompoundElement compute(@NotNull String key, @NotNull BiFunction<String, CompoundElement, CompoundElement> function) {
+        Preconditions.checkNotNull(key);
+        Preconditions.checkNotNull(function);
+
+        Slot result = this.fields.compute(key, (k, slot) -> {
+            CompoundElement current = slot == null ? null : ConcurrentBsonCompoundObject.toCompound(slot.value());
+            CompoundElement updated = function.apply(k, current);
+            if (updated == null)
+                return null;
+
+            if (slot != null && updated == slot.value()) // Nested object kept as is.
+                return slot;
+
+            return Slot.of(slot, ConcurrentBsonCompoundObject.toConcurrent(ConcurrentBsonCompoundObject.toStorable(updated)));
+        });
+
+        return result == null ? null : ConcurrentBsonCompoundObject.toCompound(result.value());
+    }
+
+    /**
+     * Atomically sets the value if absent, or merges it with the current one, see {@link Map#merge(Object, Object, BiFunction)}.
+     *
+     * @return the new value, {@code null} if removed.
+     */
+    public CompoundElement merge(@NotNull String key, @NotNull CompoundElement value,
+                                 @NotNull BiFunction<CompoundElement, CompoundElement, CompoundElement> function) {
+        Preconditions.checkNotNull(value);
+        Preconditions.checkNotNull(function);
+
+        return this.compute(key, (k, current) -> current == null ? value : function.apply(current, value));
+    }
+
+    /**
+     * Atomically adds the delta to the integer value of the key, absent keys start at zero.
+     * Integer values stay integers while the result fits.
+     *
+     * @return the incremented value.
+     * @throws UnsupportedOperationException if the current value is not an integer or a long.
+     */
+    public long increment(@NotNull String key, long delta) {
+        Preconditions.checkNotNull(key);
+
+        Slot result = this.fields.compute(key, (k, slot) -> {
+            Object current = slot == null ? null : slot.value();
+
+            Object updated;
+            if (current == null) {
+                updated = delta;
+            } else if (current instanceof Integer integer) {
+                long sum = Math.addExact(integer.longValue(), delta);
+                updated = sum == (int) sum ? (Object) (int) sum : (Object) sum;
+            } else if (current instanceof Long longValue) {
+                updated = Math.addExact(longValue, delta);
+            } else {
+                throw new UnsupportedOperationException("Value of '" + k + "' is not an integer!");
+            }
+
+            return Slot.of(slot, updated);
+        });
+
+        return ((Number) result.value()).longValue();
+    }
+
+    @Override
+    public Set<Map.Entry<String, CompoundElement>> entrySet() {
+        Set<Map.Entry<String, CompoundElement>> entries = new LinkedHashSet<>();
+        for (Map.Entry<String, Object> entry : this.ordered().entrySet()) {
+            entries.add(Map.entry(entry.getKey(), ConcurrentBsonCompoundObject.toCompound(entry.getValue())));
+        }
+
+        return Collections.unmodifiableSet(entries);
+    }
+
+    @Override
+    public int size() {
+        return this.fields.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return this.fields.isEmpty();
+    }
+
+    @Override
+    public boolean has(@NotNull String key) {
+        Preconditions.checkNotNull(key);
+
+        return this.fields.containsKey(key);
+    }
+
+    @Override
+    public CompoundElement get(@NotNull String key) {
+        Preconditions.checkNotNull(key);
+
+        Slot slot = this.fields.get(key);
+        return ConcurrentBsonCompoundObject.toCompound(slot == null ? null : slot.value());
+    }
+
+    @Override
+    public CompoundPrimitive getAsPrimitive(@NotNull String key) {
+        return this.get(key).getAsPrimitive();
+    }
+
+    @Override
+    public CompoundArray getAsArray(@NotNull String key) {
+        return this.get(key).getAsArray();
+    }
+
+    @Override
+    public CompoundObject getAsObject(@NotNull String key) {
+        return this.get(key).getAsObject();
+    }
+
+    /**
+     * Snapshot of the fields.
+     */
+    @Override
+    public Map<String, CompoundElement> asMap() {
+        Map<String, CompoundElement> map = new LinkedHashMap<>();
+        for (Map.Entry<String, CompoundElement> entry : this.entrySet()) {
+            map.put(entry.getKey(), entry.getValue());
+        }
+
+        return Collections.unmodifiableMap(map);
+    }
+
+    /**
+     * Fields in insertion order, nested objects are not copied.
+     */
+    Map<String, Object> ordered() {
+        List<Map.Entry<String, Slot>> entries = new ArrayList<>(this.fields.entrySet());
+        entries.sort(Comparator.comparing(Map.Entry::getValue, Slot.ORDER));
+
+        Map<String, Object> ordered = new LinkedHashMap<>(Math.max(16, (int) (entries.size() / 0.75f) + 1));
+        for (Map.Entry<String, Slot> entry : entries) {
+            ordered.put(entry.getKey(), entry.getValue().value());
+        }
+
+        return ordered;
+    }
+
+    /**
+     * Deep snapshot of the fields as a document.
+     */
+    public Document toDocument() {
+        Document document = new Document();
+        for (Map.Entry<String, Object> entry : this.ordered().entrySet()) {
+            Object value = entry.getValue();
+            if (value instanceof ConcurrentBsonCompoundObject object)
+                document.put(entry.getKey(), object.toDocument());
+            else
+                document.put(entry.getKey(), BsonCompoundTree.deepCopy(value));
+        }
+
+        return document;
+    }
+
+    /**
+     * Deep snapshot of the fields as a regular compound.
+     */
+    public BsonCompoundObject snapshot() {
+        return BsonCompoundObject.owned(this.toDocument());
+    }
+
+    public void writeJson(@NotNull Appendable out) throws IOException {
+        BsonCompoundJsonWriter.writeObject(this.ordered(), out);
+    }
+
+    @Override
+    public String toJson() {
+        StringBuilder builder = new StringBuilder();
+
+        try {
+            this.writeJson(builder);
+        } catch (IOException e) { // Never thrown by a StringBuilder.
+            throw new UncheckedIOException(e);
+        }
+
+        return builder.toString();
+    }
+
+    @Override
+    public boolean isArray() {
+        return false;
+    }
+
+    @Override
+    public boolean isObject() {
+        return true;
+    }
+
+    @Override
+    public boolean isPrimitive() {
+        return false;
+    }
+
+    @Override
+    public boolean isNull() {
+        return false;
+    }
+
+    @Override
+    public CompoundArray getAsArray() {
+        throw new IllegalStateException("Not a CompoundArray: " + this);
+    }
+
+    @Override
+    public ConcurrentBsonCompoundObject getAsObject() {
+        return this;
+    }
+
+    @Override
+    public CompoundPrimitive getAsPrimitive() {
+        throw new IllegalStateException("Not a CompoundPrimitive: " + this);
+    }
+
+    @Override
+    public CompoundNull getAsNull() {
+        throw new IllegalStateException("Not a CompoundNull: " + this);
+    }
+
+    @Override
+    public boolean getAsBoolean() {
+        throw this.unsupportedOperation();
+    }
+
+    @Override
+    public double getAsDouble() {
+        throw this.unsupportedOperation();
+    }
+
+    @Override
+    public long getAsLong() {
+        throw this.unsupportedOperation();
+    }
+
+    @Override
+    public int getAsInt() {
+        throw this.unsupportedOperation();
+    }
+
+    @Override
+    public byte getAsByte() {
+        throw this.unsupportedOperation();
+    }
+
+    @Override
+    public byte[] getAsByteArray() {
+        throw this.unsupportedOperation();
+    }
+
+    @Override
+    public Date getAsDate() {
+        throw this.unsupportedOperation();
+    }
+
+    @Override
+    public char getAsChar() {
+        throw this.unsupportedOperation();
+    }
+
+    @Override
+    public String getAsString() {
+        throw this.unsupportedOperation();
+    }
+
+    private UnsupportedOperationException unsupportedOperation() {
+        return new UnsupportedOperationException(this.getClass().getName());
+    }
+
+    @Override
+    public ConcurrentBsonCompoundObject clone() {
+        ConcurrentBsonCompoundObject clone = new ConcurrentBsonCompoundObject();
+        for (Map.Entry<String, Object> entry : this.ordered().entrySet()) {
+            Object value = entry.getValue();
+            if (value instanceof ConcurrentBsonCompoundObject object)
+                value = object.clone();
+
+            clone.fields.put(entry.getKey(), Slot.of(null, value)); // Lists are never mutated, they can be shared.
+        }
+
+        return clone;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == this)
+            return true;
+
+        if (!(obj instanceof ConcurrentBsonCompoundObject other))
+            return false;
+
+        return other.ordered().equals(this.ordered());
+    }
+
+    @Override
+    public int hashCode() {
+        return this.ordered().hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return this.toJson();
+    }
+
+    private record Slot(long time, long sequence, Object value) {
+        private static final Comparator<Slot> ORDER = Comparator.comparingLong(Slot::time).thenComparingLong(Slot::sequence);
+
+        // Replacing a value keeps the position of the key.
+        private static Slot of(Slot previous, Object value) {
+            if (previous != null)
+                return new Slot(previous.time, previous.sequence, value);
+
+            long[] sequence = SEQUENCES.get();
+            return new Slot(System.nanoTime(), sequence[0]++, value);
+        }
+    }
+}
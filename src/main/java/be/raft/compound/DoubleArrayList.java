@@ -0,0 +1,132 @@
+package be.raft.compound;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.RandomAccess;
+
+/**
+ * Growable {@code double[]} exposed as the {@code List<Object>} storage of a {@link BsonCompoundDoubleArray}.
+ * <p>
+ * Only {@link Double} elements are accepted through the list interface.
+ */
+final class DoubleArrayList extends AbstractList<Object> implements RandomAccess {
+    private static final double[] EMPTY = new double[0];
+
+    private double[] values;
+    private int size;
+
+    DoubleArrayList(int capacity) {
+        if (capacity < 0)
+            throw new IllegalArgumentException("Capacity cannot be negative: " + capacity);
+
+        this.values = capacity == 0 ? EMPTY : new double[capacity];
+    }
+
+    DoubleArrayList(double[] values) {
+        this.values = Arrays.copyOf(values, values.length);
+        this.size = values.length;
+    }
+
+    double getDouble(int index) {
+        Objects.checkIndex(index, this.size);
+
+        return this.values[index];
+    }
+
+    double setDouble(int index, double value) {
+        Objects.checkIndex(index, this.size);
+
+        double previous = this.values[index];
+        this.values[index] = value;
+
+        return previous;
+    }
+
+    void addDouble(double value) {
+        this.ensureCapacity(this.size + 1);
+        this.values[this.size++] = value;
+        this.modCount++;
+    }
+
+    void addAll(double[] values, int offset, int length) {
+        Objects.checkFromIndexSize(offset, length, values.length);
+
+        this.ensureCapacity(this.size + length);
+        System.arraycopy(values, offset, this.values, this.size, length);
+        this.size += length;
+        this.modCount++;
+    }
+
+    double[] toDoubleArray() {
+        return Arrays.copyOf(this.values, this.size);
+    }
+
+    DoubleArrayList copy() {
+        DoubleArrayList copy = new DoubleArrayList(this.size);
+        System.arraycopy(this.values, 0, copy.values, 0, this.size);
+        copy.size = this.size;
+
+        return copy;
+    }
+
+    void ensureCapacity(int capacity) {
+        if (capacity <= this.values.length)
+            return;
+
+        int grown = Math.max(capacity, this.values.length + (this.values.length >> 1) + 1);
+        this.values = Arrays.copyOf(this.values, grown);
+    }
+
+    @Override
+    public Object get(int index) {
+        return this.getDouble(index);
+    }
+
+    @Override
+    public Object set(int index, Object element) {
+        return this.setDouble(index, DoubleArrayList.unbox(element));
+    }
+
+    @Override
+    public void add(int index, Object element) {
+        Objects.checkIndex(index, this.size + 1);
+        double value = DoubleArrayList.unbox(element);
+
+        this.ensureCapacity(this.size + 1);
+        System.arraycopy(this.values, index, this.values, index + 1, this.size - index);
+        this.values[index] = value;
+        this.size++;
+        this.modCount++;
+    }
+
+    @Override
+    public Object remove(int index) {
+        Objects.checkIndex(index, this.size);
+
+        double previous = this.values[index];
+        System.arraycopy(this.values, index + 1, this.values, index, this.size - index - 1);
+        this.size--;
+        this.modCount++;
+
+        return previous;
+    }
+
+    @Override
+    public void clear() {
+        this.size = 0;
+        this.modCount++;
+    }
+
+    @Override
+    public int size() {
+        return this.size;
+    }
+
+    private static double unbox(Object element) {
+        if (element instanceof Double value)
+            return value;
+
+        throw new IllegalArgumentException("Only double values can be stored in a packed double array: " + element);
+    }
+}
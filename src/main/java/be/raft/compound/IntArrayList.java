@@ -0,0 +1,132 @@
+package be.raft.compound;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.RandomAccess;
+
+/**
+ * Growable {@code int[]} exposed as the {@code List<Object>} storage of a {@link BsonCompoundIntArray}.
+ * <p>
+ * Only {@link Integer} elements are accepted through the list interface.
+ */
+final class IntArrayList extends AbstractList<Object> implements RandomAccess {
+    private static final int[] EMPTY = new int[0];
+
+    private int[] values;
+    private int size;
+
+    IntArrayList(int capacity) {
+        if (capacity < 0)
+            throw new IllegalArgumentException("Capacity cannot be negative: " + capacity);
+
+        this.values = capacity == 0 ? EMPTY : new int[capacity];
+    }
+
+    IntArrayList(int[] values) {
+        this.values = Arrays.copyOf(values, values.length);
+        this.size = values.length;
+    }
+
+    int getInt(int index) {
+        Objects.checkIndex(index, this.size);
+
+        return this.values[index];
+    }
+
+    int setInt(int index, int value) {
+        Objects.checkIndex(index, this.size);
+
+        int previous = this.values[index];
+        this.values[index] = value;
+
+        return previous;
+    }
+
+    void addInt(int value) {
+        this.ensureCapacity(this.size + 1);
+        this.values[this.size++] = value;
+        this.modCount++;
+    }
+
+    void addAll(int[] values, int offset, int length) {
+        Objects.checkFromIndexSize(offset, length, values.length);
+
+        this.ensureCapacity(this.size + length);
+        System.arraycopy(values, offset, this.values, this.size, length);
+        this.size += length;
+        this.modCount++;
+    }
+
+    int[] toIntArray() {
+        return Arrays.copyOf(this.values, this.size);
+    }
+
+    IntArrayList copy() {
+        IntArrayList copy = new IntArrayList(this.size);
+        System.arraycopy(this.values, 0, copy.values, 0, this.size);
+        copy.size = this.size;
+
+        return copy;
+    }
+
+    void ensureCapacity(int capacity) {
+        if (capacity <= this.values.length)
+            return;
+
+        int grown = Math.max(capacity, this.values.length + (this.values.length >> 1) + 1);
+        this.values = Arrays.copyOf(this.values, grown);
+    }
+
+    @Override
+    public Object get(int index) {
+        return this.getInt(index);
+    }
+
+    @Override
+    public Object set(int index, Object element) {
+        return this.setInt(index, IntArrayList.unbox(element));
+    }
+
+    @Override
+    public void add(int index, Object element) {
+        Objects.checkIndex(index, this.size + 1);
+        int value = IntArrayList.unbox(element);
+
+        this.ensureCapacity(this.size + 1);
+        System.arraycopy(this.values, index, this.values, index + 1, this.size - index);
+        this.values[index] = value;
+        this.size++;
+        this.modCount++;
+    }
+
+    @Override
+    public Object remove(int index) {
+        Objects.checkIndex(index, this.size);
+
+        int previous = this.values[index];
+        System.arraycopy(this.values, index + 1, this.values, index, this.size - index - 1);
+        this.size--;
+        this.modCount++;
+
+        return previous;
+    }
+
+    @Override
+    public void clear() {
+        this.size = 0;
+        this.modCount++;
+    }
+
+    @Override
+    public int size() {
+        return this.size;
+    }
+
+    private static int unbox(Object element) {
+        if (element instanceof Integer value)
+            return value;
+
+        throw new IllegalArgumentException("Only int values can be stored in a packed int array: " + element);
+    }
+}
@@ -4,6 +4,7 @@ module be.raft.compound {
     requires fr.atlasworld.common;
     requires org.mongodb.bson;
     requires org.jetbrains.annotations;
+    requires static jdk.jfr;
 
     exports be.raft.compound;
 }
\ No newline at end of file
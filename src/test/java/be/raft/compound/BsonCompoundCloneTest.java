@@ -0,0 +1,111 @@
+package be.raft.compound;
+
+import fr.atlasworld.common.compound.CompoundObject;
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BsonCompoundCloneTest {
+
+    private static BsonCompoundObject tree() {
+        BsonCompoundObject object = new BsonCompoundObject();
+        object.add("name", "raft");
+        object.addObject("nested", nested -> nested.addObject("deep", deep -> deep.add("value", 1)));
+        object.addArray("values", array -> array.add(1).addObject(element -> element.add("id", 2)));
+
+        return object;
+    }
+
+    @Test
+    void cloneIsEqual() {
+        BsonCompoundObject object = tree();
+        BsonCompoundObject clone = object.clone();
+
+        assertNotSame(object, clone);
+        assertEquals(object, clone);
+        assertEquals(object.hashCode(), clone.hashCode());
+    }
+
+    @Test
+    void writesToCloneDoNotReachOriginal() {
+        BsonCompoundObject object = tree();
+        BsonCompoundObject clone = object.clone();
+
+        clone.getAsObject("nested").getAsObject("deep").add("value", 2);
+        clone.getAsArray("values").get(1).getAsObject().add("id", 3);
+        clone.add("name", "copy");
+
+        assertEquals(1, object.getAsObject("nested").getAsObject("deep").get("value").getAsInt());
+        assertEquals(2, object.getAsArray("values").get(1).getAsObject().get("id").getAsInt());
+        assertEquals("raft", object.get("name").getAsString());
+        assertNotEquals(object, clone);
+    }
+
+    @Test
+    void writesToOriginalDoNotReachClone() {
+        BsonCompoundObject object = tree();
+        BsonCompoundObject clone = object.clone();
+
+        object.getAsObject("nested").getAsObject("deep").add("value", 2);
+        object.getAsArray("values").add(3);
+
+        assertEquals(1, clone.getAsObject("nested").getAsObject("deep").get("value").getAsInt());
+        assertEquals(2, clone.getAsArray("values").size());
+    }
+
+    @Test
+    void compoundsReadBeforeCloneStayLinked() {
+        BsonCompoundObject object = tree();
+        CompoundObject deep = object.getAsObject("nested").getAsObject("deep");
+        BsonCompoundObject clone = object.clone();
+
+        deep.add("value", 2);
+
+        assertEquals(2, object.getAsObject("nested").getAsObject("deep").get("value").getAsInt());
+        assertEquals(1, clone.getAsObject("nested").getAsObject("deep").get("value").getAsInt());
+    }
+
+    @Test
+    void cloneOfClone() {
+        BsonCompoundObject object = tree();
+        BsonCompoundObject first = object.clone();
+        BsonCompoundObject second = first.clone();
+
+        first.getAsObject("nested").add("first", true);
+        second.getAsObject("nested").add("second", true);
+
+        assertFalse(object.getAsObject("nested").has("first"));
+        assertFalse(object.getAsObject("nested").has("second"));
+        assertFalse(second.getAsObject("nested").has("first"));
+        assertFalse(first.getAsObject("nested").has("second"));
+    }
+
+    @Test
+    void escapedTreeIsCopied() {
+        Document nested = new Document("value", 1);
+        BsonCompoundObject object = new BsonCompoundObject(new Document("nested", nested));
+        BsonCompoundObject clone = object.clone();
+
+        nested.put("value", 2); // Written by the caller, outside the tree.
+
+        assertEquals(1, clone.getAsObject("nested").get("value").getAsInt());
+        assertEquals(2, object.getAsObject("nested").get("value").getAsInt());
+    }
+
+    @Test
+    void arrayClone() {
+        List<Object> elements = new ArrayList<>(List.of(1, new Document("id", 2)));
+        BsonCompoundArray array = new BsonCompoundArray(elements);
+        BsonCompoundArray clone = array.clone();
+
+        clone.get(1).getAsObject().add("id", 3);
+        ((Document) elements.get(1)).put("id", 4);
+
+        assertEquals(3, clone.get(1).getAsObject().get("id").getAsInt());
+        assertEquals(4, array.get(1).getAsObject().get("id").getAsInt());
+    }
+}
@@ -0,0 +1,128 @@
+package be.raft.compound;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BsonCompoundFileTest {
+    // {"a": 1}
+    private static final byte[] RECORD = {12, 0, 0, 0, 0x10, 'a', 0, 1, 0, 0, 0, 0};
+
+    @TempDir
+    Path directory;
+
+    private static BsonCompoundObject raw(byte[] bytes) {
+        return new BsonCompoundObject(ByteBuffer.wrap(bytes));
+    }
+
+    private static byte[] bytes(BsonCompoundObject object) {
+        ByteBuffer buffer = object.raw().buffer();
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+
+        return bytes;
+    }
+
+    @Test
+    void appendAndGet() throws IOException {
+        try (BsonCompoundFile file = BsonCompoundFile.open(this.directory.resolve("records.bson"))) {
+            BsonCompoundObject object = new BsonCompoundObject();
+            object.add("name", "raft");
+            object.addArray("values", array -> array.add(1).add(2));
+
+            int index = file.append(object);
+            BsonCompoundObject read = file.get(index);
+
+            assertTrue(read.isRaw());
+            assertEquals("raft", read.get("name").getAsString());
+            assertEquals(object, read);
+        }
+    }
+
+    @Test
+    void recordsAreIndexedOnReopen() throws IOException {
+        Path path = this.directory.resolve("records.bson");
+
+        try (BsonCompoundFile file = BsonCompoundFile.open(path)) {
+            assertEquals(0, file.append(raw(RECORD)));
+            assertEquals(1, file.append(raw(RECORD)));
+        }
+
+        try (BsonCompoundFile file = BsonCompoundFile.open(path)) {
+            assertEquals(2, file.size());
+            assertEquals(2L * RECORD.length, file.length());
+            assertEquals(RECORD.length, file.offset(1));
+            assertArrayEquals(RECORD, bytes(file.read(RECORD.length)));
+
+            int count = 0;
+            for (BsonCompoundObject object : file) {
+                assertArrayEquals(RECORD, bytes(object));
+                count++;
+            }
+
+            assertEquals(2, count);
+        }
+    }
+
+    @Test
+    void truncatedTailIsDropped() throws IOException {
+        Path path = this.directory.resolve("records.bson");
+
+        byte[] content = Arrays.copyOf(RECORD, RECORD.length + 6); // Second record cut short after its first bytes.
+        System.arraycopy(RECORD, 0, content, RECORD.length, 6);
+        Files.write(path, content);
+
+        try (BsonCompoundFile file = BsonCompoundFile.open(path)) {
+            assertEquals(1, file.size());
+            assertEquals(RECORD.length, file.length());
+        }
+
+        assertEquals(RECORD.length, Files.size(path));
+    }
+
+    @Test
+    void corruptFileIsLeftUntouched() throws IOException {
+        Path path = this.directory.resolve("records.bson");
+
+        byte[] content = RECORD.clone();
+        content[content.length - 1] = 1; // Not terminated.
+        Files.write(path, Arrays.copyOf(content, content.length + RECORD.length));
+
+        assertThrows(IOException.class, () -> BsonCompoundFile.open(path));
+        assertEquals(content.length + RECORD.length, Files.size(path));
+    }
+
+    @Test
+    void readRejectsInvalidOffsets() throws IOException {
+        Path path = this.directory.resolve("records.bson");
+
+        try (BsonCompoundFile file = BsonCompoundFile.open(path)) {
+            file.append(raw(RECORD));
+            file.append(raw(RECORD));
+
+            assertThrows(IllegalArgumentException.class, () -> file.read(-1));
+            assertThrows(IllegalArgumentException.class, () -> file.read(1)); // Inside a record.
+            assertThrows(IllegalArgumentException.class, () -> file.read(2L * RECORD.length));
+        }
+
+        assertEquals(2L * RECORD.length, Files.size(path));
+    }
+
+    @Test
+    void recordsStayReadableAfterClose() throws IOException {
+        BsonCompoundObject read;
+        try (BsonCompoundFile file = BsonCompoundFile.open(this.directory.resolve("records.bson"))) {
+            file.append(raw(RECORD));
+            read = file.get(0);
+        }
+
+        assertArrayEquals(RECORD, bytes(read));
+    }
+}
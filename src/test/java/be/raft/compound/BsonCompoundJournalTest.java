@@ -0,0 +1,97 @@
+package be.raft.compound;
+
+import fr.atlasworld.common.compound.CompoundObject;
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BsonCompoundJournalTest {
+
+    private static BsonCompoundObject tracked() {
+        BsonCompoundObject object = new BsonCompoundObject();
+        object.add("name", "raft");
+        object.add("count", 1);
+        object.addObject("profile", profile -> profile.add("age", 30).addObject("address", address -> address.add("zip", "1000")));
+        object.addArray("tags", tags -> tags.add("a").add("b"));
+
+        return object.trackChanges();
+    }
+
+    // Replaying the drained changes on a copy taken at the previous drain must give the current state.
+    private static void assertReplays(BsonCompoundObject before, BsonCompoundObject object) {
+        object.drainChanges().applyTo(before);
+        assertEquals(object, before);
+    }
+
+    @Test
+    void drainRequiresTracking() {
+        BsonCompoundObject object = new BsonCompoundObject();
+
+        assertFalse(object.isTrackingChanges());
+        assertThrows(IllegalStateException.class, object::drainChanges);
+    }
+
+    @Test
+    void nestedWritesAreRecorded() {
+        BsonCompoundObject object = tracked();
+
+        object.getAsObject("profile").getAsObject("address").add("zip", "2000");
+        object.remove("count");
+
+        assertTrue(object.hasChanges());
+        assertEquals(new Document("$set", new Document("profile.address.zip", "2000"))
+                .append("$unset", new Document("count", "")), object.drainChanges().toUpdate());
+        assertFalse(object.hasChanges());
+        assertTrue(object.drainChanges().isEmpty());
+    }
+
+    @Test
+    void onlyTopmostPathsAreKept() {
+        BsonCompoundObject object = tracked();
+
+        object.getAsObject("profile").add("age", 31);
+        object.getAsObject("profile").getAsObject("address").add("zip", "2000");
+        object.addObject("profile", profile -> profile.add("age", 32));
+
+        assertEquals(new Document("$set", new Document("profile", new Document("age", 32))), object.drainChanges().toUpdate());
+    }
+
+    @Test
+    void consecutiveDrainsReplay() {
+        BsonCompoundObject object = tracked();
+        BsonCompoundObject before = object.clone();
+
+        object.getAsArray("tags").add("c");
+        object.getAsObject("profile").add("age", 31);
+        assertReplays(before, object);
+
+        object.getAsArray("tags").set(0, "z");
+        object.add("name", "compound");
+        assertReplays(before, object);
+    }
+
+    @Test
+    void compoundsReadBeforeWritesAreTracked() {
+        BsonCompoundObject object = tracked();
+        BsonCompoundObject before = object.clone();
+        CompoundObject address = object.getAsObject("profile").getAsObject("address");
+
+        address.add("street", "Main");
+
+        assertReplays(before, object);
+    }
+
+    @Test
+    void handedOutDocumentsAreAlwaysDrained() {
+        BsonCompoundObject object = tracked();
+        BsonCompoundObject before = object.clone();
+        Document document = object.getDocument();
+
+        document.put("extra", 1);
+        assertReplays(before, object);
+
+        document.remove("count"); // Written after the drain, without going through the compound.
+        assertReplays(before, object);
+    }
+}
@@ -0,0 +1,113 @@
+package be.raft.compound;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BsonCompoundParallelCodecTest {
+    private static final int SEGMENT_SIZE = 4;
+
+    private final ForkJoinPool pool = new ForkJoinPool(2);
+    private final BsonCompoundParallelCodec codec = new BsonCompoundParallelCodec(BsonCompoundCodec.DEFAULT, this.pool, SEGMENT_SIZE);
+
+    @AfterEach
+    void shutdown() {
+        this.pool.shutdown();
+    }
+
+    private static BsonCompoundObject object(int elements) {
+        BsonCompoundObject object = new BsonCompoundObject();
+        object.add("name", "raft");
+        object.addArray("small", array -> array.add(1).add(2));
+        object.addArray("large", array -> {
+            for (int i = 0; i < elements; i++) {
+                int index = i;
+                if (i % 3 == 0)
+                    array.addObject(element -> element.add("id", index).add("label", "element" + index));
+                else
+                    array.add((long) index);
+            }
+        });
+        object.add("after", true);
+
+        return object;
+    }
+
+    @Test
+    void encodesLikeTheSequentialCodec() {
+        for (int elements : new int[]{0, 3, 4, 5, 16, 17, 101}) {
+            BsonCompoundObject object = object(elements);
+
+            assertArrayEquals(BsonCompoundCodec.DEFAULT.encode(object), this.codec.encode(object));
+        }
+    }
+
+    @Test
+    void decodesLikeTheSequentialCodec() {
+        for (int elements : new int[]{0, 3, 4, 5, 16, 17, 101}) {
+            byte[] bytes = BsonCompoundCodec.DEFAULT.encode(object(elements));
+
+            assertEquals(BsonCompoundCodec.DEFAULT.decode(bytes), this.codec.decode(ByteBuffer.wrap(bytes)));
+        }
+    }
+
+    @Test
+    void decodesAtBufferPosition() {
+        byte[] bytes = BsonCompoundCodec.DEFAULT.encode(object(33));
+        ByteBuffer buffer = ByteBuffer.allocate(bytes.length + 7);
+        buffer.position(7);
+        buffer.put(bytes);
+        buffer.position(7);
+
+        assertEquals(object(33), this.codec.decode(buffer));
+        assertEquals(7, buffer.position());
+    }
+
+    @Test
+    void arrayRoundTrip() {
+        BsonCompoundArray array = (BsonCompoundArray) object(50).getAsArray("large");
+        byte[] bytes = this.codec.encode(array);
+
+        assertEquals(array, this.codec.decodeArray(ByteBuffer.wrap(bytes)));
+    }
+
+    @Test
+    void batchRoundTrip() {
+        List<BsonCompoundObject> objects = new ArrayList<>();
+        for (int i = 0; i < 11; i++) {
+            objects.add(object(i));
+        }
+
+        byte[] bytes = this.codec.encodeAll(objects);
+
+        assertEquals(objects, this.codec.decodeAll(ByteBuffer.wrap(bytes)));
+        assertTrue(this.codec.decodeAll(ByteBuffer.allocate(0)).isEmpty());
+    }
+
+    @Test
+    void batchRejectsTruncatedDocument() {
+        byte[] bytes = this.codec.encodeAll(List.of(object(2), object(2)));
+        ByteBuffer truncated = ByteBuffer.wrap(bytes, 0, bytes.length - 1);
+
+        assertThrows(IllegalArgumentException.class, () -> this.codec.decodeAll(truncated));
+    }
+
+    @Test
+    void largeSegmentSizeDoesNotOverflow() {
+        BsonCompoundParallelCodec codec = new BsonCompoundParallelCodec(BsonCompoundCodec.DEFAULT, this.pool, Integer.MAX_VALUE);
+        byte[] bytes = BsonCompoundCodec.DEFAULT.encode(object(40));
+
+        assertEquals(object(40), codec.decode(ByteBuffer.wrap(bytes)));
+    }
+
+    @Test
+    void rejectsInvalidSegmentSize() {
+        assertThrows(IllegalArgumentException.class, () -> new BsonCompoundParallelCodec(BsonCompoundCodec.DEFAULT, this.pool, 0));
+    }
+}
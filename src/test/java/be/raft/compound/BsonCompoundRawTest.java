@@ -0,0 +1,99 @@
+package be.raft.compound;
+
+import fr.atlasworld.common.compound.CompoundObject;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BsonCompoundRawTest {
+
+    private static byte[] encoded() {
+        BsonCompoundObject object = new BsonCompoundObject();
+        object.add("name", "raft");
+        object.add("count", 3);
+        object.addObject("nested", nested -> nested.add("flag", true));
+        object.addArray("values", array -> array.add(1).add(2));
+
+        return BsonCompoundCodec.DEFAULT.encode(object);
+    }
+
+    @Test
+    void readsFieldsWithoutDecoding() {
+        BsonCompoundObject raw = new BsonCompoundObject(ByteBuffer.wrap(encoded()));
+
+        assertEquals("raft", raw.get("name").getAsString());
+        assertEquals(3, raw.get("count").getAsInt());
+        assertTrue(raw.has("nested"));
+        assertFalse(raw.has("missing"));
+        assertEquals(4, raw.size());
+        assertTrue(raw.isRaw());
+    }
+
+    @Test
+    void nestedObjectsAreReadInPlace() {
+        BsonCompoundObject raw = new BsonCompoundObject(ByteBuffer.wrap(encoded()));
+
+        assertTrue(raw.getAsObject("nested").get("flag").getAsBoolean());
+        assertTrue(raw.isRaw());
+    }
+
+    @Test
+    void mutationDecodesOnce() {
+        BsonCompoundObject raw = new BsonCompoundObject(ByteBuffer.wrap(encoded()));
+        raw.add("extra", 1L);
+
+        assertFalse(raw.isRaw());
+        assertEquals("raft", raw.get("name").getAsString());
+        assertEquals(1L, raw.get("extra").getAsLong());
+        assertEquals(5, raw.size());
+    }
+
+    @Test
+    void writesToNestedCopiesAreStored() {
+        BsonCompoundObject raw = new BsonCompoundObject(ByteBuffer.wrap(encoded()));
+
+        CompoundObject nested = raw.getAsObject("nested");
+        nested.add("flag", false);
+
+        assertFalse(raw.getAsObject("nested").get("flag").getAsBoolean());
+    }
+
+    @Test
+    void equalsDecodedCompound() {
+        BsonCompoundObject raw = new BsonCompoundObject(ByteBuffer.wrap(encoded()));
+        BsonCompoundObject decoded = BsonCompoundCodec.DEFAULT.decode(encoded());
+
+        assertEquals(decoded, raw);
+        assertEquals(decoded.hashCode(), raw.hashCode());
+    }
+
+    @Test
+    void wrapsRawBsonDocument() {
+        RawBsonDocument document = new RawBsonDocument(encoded());
+        BsonCompoundObject raw = new BsonCompoundObject(document);
+
+        assertTrue(raw.isRaw());
+        assertEquals(List.of(1, 2), raw.getDocument().get("values"));
+    }
+
+    @Test
+    void rejectsTruncatedBuffer() {
+        byte[] bytes = encoded();
+
+        assertThrows(IllegalArgumentException.class, () -> new BsonCompoundObject(ByteBuffer.wrap(bytes, 0, bytes.length - 1)));
+        assertThrows(IllegalArgumentException.class, () -> new BsonCompoundObject(ByteBuffer.wrap(new byte[4])));
+    }
+
+    @Test
+    void emptyDocument() {
+        BsonCompoundObject raw = new BsonCompoundObject(ByteBuffer.wrap(BsonCompoundCodec.DEFAULT.encode(new BsonCompoundObject())));
+
+        assertTrue(raw.isEmpty());
+        assertEquals(new BsonCompoundObject(new Document()), raw);
+    }
+}
@@ -0,0 +1,126 @@
+package be.raft.compound;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CompoundCacheTest {
+
+    // Documents of the same encoded size, only their values differ.
+    private static byte[] encoded(int id, int value) {
+        BsonCompoundObject object = new BsonCompoundObject();
+        object.add("_id", id);
+        object.add("value", value);
+
+        return BsonCompoundCodec.DEFAULT.encode(object);
+    }
+
+    private static int length() {
+        return encoded(0, 0).length;
+    }
+
+    @Test
+    void copiesShareOneFrozenCompound() {
+        CompoundCache cache = CompoundCache.byContent(1024);
+
+        BsonCompoundObject first = cache.get(encoded(1, 1));
+        BsonCompoundObject second = cache.get(encoded(1, 1));
+
+        assertSame(first, second);
+        assertTrue(first.isFrozen());
+        assertEquals(1, first.get("value").getAsInt());
+        assertEquals(new CompoundCache.Stats(1, 1, 0, 1, length()), cache.stats());
+    }
+
+    @Test
+    void readsAtBufferPosition() {
+        CompoundCache cache = CompoundCache.byContent(1024);
+        byte[] bytes = encoded(1, 1);
+        ByteBuffer buffer = ByteBuffer.allocate(bytes.length + 3);
+        buffer.position(3);
+        buffer.put(bytes);
+        buffer.position(3);
+
+        assertSame(cache.get(bytes), cache.get(buffer));
+        assertEquals(3, buffer.position());
+    }
+
+    @Test
+    void pathKeyedEntryIsReplacedOnChange() {
+        CompoundCache cache = CompoundCache.byPath("_id", 1024);
+
+        BsonCompoundObject first = cache.get(encoded(1, 1));
+        BsonCompoundObject changed = cache.get(encoded(1, 2));
+
+        assertNotSame(first, changed);
+        assertEquals(2, changed.get("value").getAsInt());
+        assertSame(changed, cache.get(encoded(1, 2)));
+        assertEquals(1, cache.size());
+        assertEquals(length(), cache.weight());
+    }
+
+    @Test
+    void evictsOverMaxWeight() {
+        CompoundCache cache = CompoundCache.byContent(2L * length());
+
+        for (int i = 0; i < 5; i++) {
+            cache.get(encoded(i, i));
+        }
+
+        assertEquals(2, cache.size());
+        assertEquals(2L * length(), cache.weight());
+        assertEquals(3, cache.stats().evictions());
+    }
+
+    @Test
+    void readEntriesGetSecondChance() {
+        CompoundCache cache = CompoundCache.byContent(2L * length());
+
+        BsonCompoundObject first = cache.get(encoded(1, 1));
+        cache.get(encoded(2, 2));
+        cache.get(encoded(1, 1)); // Referenced, skipped once by the clock.
+        cache.get(encoded(3, 3));
+
+        assertSame(first, cache.get(encoded(1, 1)));
+        assertEquals(1, cache.stats().evictions());
+
+        long misses = cache.stats().misses();
+        cache.get(encoded(2, 2));
+        assertEquals(misses + 1, cache.stats().misses());
+    }
+
+    @Test
+    void oversizedDocumentsAreNotCached() {
+        CompoundCache cache = CompoundCache.byContent(length() - 1);
+
+        BsonCompoundObject object = cache.get(encoded(1, 1));
+
+        assertEquals(1, object.get("value").getAsInt());
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.weight());
+    }
+
+    @Test
+    void invalidateAll() {
+        CompoundCache cache = CompoundCache.byContent(1024);
+        BsonCompoundObject first = cache.get(encoded(1, 1));
+
+        cache.invalidateAll();
+
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.weight());
+        assertNotSame(first, cache.get(encoded(1, 1)));
+    }
+
+    @Test
+    void rejectsInvalidInput() {
+        CompoundCache cache = CompoundCache.byContent(1024);
+        byte[] bytes = encoded(1, 1);
+
+        assertThrows(IllegalArgumentException.class, () -> cache.get(ByteBuffer.wrap(bytes, 0, bytes.length - 1)));
+        assertThrows(IllegalArgumentException.class, () -> CompoundCache.byContent(0));
+        assertThrows(IllegalArgumentException.class, () -> CompoundCache.byPath("tags[*]", 1024));
+    }
+}
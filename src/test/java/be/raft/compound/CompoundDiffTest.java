@@ -0,0 +1,154 @@
+package be.raft.compound;
+
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CompoundDiffTest {
+
+    private static BsonCompoundObject source() {
+        BsonCompoundObject object = new BsonCompoundObject();
+        object.add("name", "raft");
+        object.add("count", 1);
+        object.addObject("profile", profile -> profile.add("age", 30).add("city", "Brussels"));
+        object.addArray("tags", tags -> tags.add("a").add("b").add("c"));
+
+        return object;
+    }
+
+    private static void assertPatches(BsonCompoundObject source, BsonCompoundObject target, CompoundDiff diff) {
+        BsonCompoundObject patched = source.clone();
+        diff.applyTo(patched);
+        assertEquals(target, patched);
+
+        BsonCompoundObject replayed = source.clone();
+        CompoundDiff.fromCompound(diff.toCompound()).applyTo(replayed);
+        assertEquals(target, replayed);
+    }
+
+    @Test
+    void equalObjectsHaveNoDiff() {
+        assertTrue(CompoundDiff.between(source(), source()).isEmpty());
+        assertTrue(CompoundDiff.between(source(), source().clone()).isEmpty());
+    }
+
+    @Test
+    void onlyChangedFieldsAreSet() {
+        BsonCompoundObject source = source();
+        BsonCompoundObject target = source.clone();
+        target.getAsObject("profile").add("age", 31);
+        target.remove("count");
+        target.add("extra", true);
+
+        CompoundDiff diff = CompoundDiff.between(source, target);
+
+        assertEquals(3, diff.size());
+        assertEquals(new Document("$set", new Document("profile.age", 31).append("extra", true))
+                .append("$unset", new Document("count", "")), diff.toUpdate());
+        assertPatches(source, target, diff);
+    }
+
+    @Test
+    void arrayAppendIsPushed() {
+        BsonCompoundObject source = source();
+        BsonCompoundObject target = source.clone();
+        target.getAsArray("tags").add("d").add("e");
+
+        CompoundDiff diff = CompoundDiff.between(source, target);
+
+        assertEquals(1, diff.size());
+        assertEquals(new Document("$push", new Document("tags", new Document("$each", List.of("d", "e")))), diff.toUpdate());
+        assertPatches(source, target, diff);
+    }
+
+    @Test
+    void arrayTruncationIsSliced() {
+        BsonCompoundObject source = source();
+        BsonCompoundObject target = source.clone();
+        target.getAsArray("tags").remove(2);
+
+        CompoundDiff diff = CompoundDiff.between(source, target);
+
+        assertEquals(new Document("$push", new Document("tags", new Document("$each", List.of()).append("$slice", 2))), diff.toUpdate());
+        assertPatches(source, target, diff);
+    }
+
+    @Test
+    void arrayInsertionSetsWholeArray() {
+        BsonCompoundObject source = source();
+        BsonCompoundObject target = source.clone();
+        target.getDocument().put("tags", new ArrayList<>(List.of("a", "x", "b", "c")));
+
+        CompoundDiff diff = CompoundDiff.between(source, target);
+
+        assertEquals(new Document("$set", new Document("tags", List.of("a", "x", "b", "c"))), diff.toUpdate());
+        assertPatches(source, target, diff);
+
+        CompoundDiff replayed = CompoundDiff.fromCompound(diff.toCompound()); // The whole array is not part of the compound form.
+        assertThrows(IllegalStateException.class, replayed::toUpdate);
+    }
+
+    @Test
+    void sameLengthArraysAreDiffedPerElement() {
+        BsonCompoundObject source = source();
+        BsonCompoundObject target = source.clone();
+        target.getAsArray("tags").set(1, "x");
+
+        CompoundDiff diff = CompoundDiff.between(source, target);
+
+        assertEquals(new Document("$set", new Document("tags.1", "x")), diff.toUpdate());
+        assertPatches(source, target, diff);
+    }
+
+    @Test
+    void replacedEqualSubtreeHasNoDiff() {
+        BsonCompoundObject source = source();
+        BsonCompoundObject target = source.clone();
+        target.getDocument().put("profile", new Document("age", 30).append("city", "Brussels"));
+
+        assertTrue(CompoundDiff.between(source, target).isEmpty());
+    }
+
+    @Test
+    void dottedKeysRoundTrip() {
+        BsonCompoundObject source = new BsonCompoundObject();
+        source.addObject("a.b", nested -> nested.add("c", 1));
+        BsonCompoundObject target = source.clone();
+        target.getAsObject("a.b").add("c", 2);
+
+        CompoundDiff diff = CompoundDiff.between(source, target);
+
+        assertPatches(source, target, diff);
+        assertThrows(IllegalStateException.class, diff::toUpdate);
+    }
+
+    @Test
+    void diffDoesNotAliasTarget() {
+        BsonCompoundObject source = source();
+        BsonCompoundObject target = source.clone();
+        target.addObject("added", added -> added.add("value", 1));
+
+        CompoundDiff diff = CompoundDiff.between(source, target);
+        target.getAsObject("added").add("value", 2);
+
+        BsonCompoundObject patched = source.clone();
+        diff.applyTo(patched);
+
+        assertEquals(1, patched.getAsObject("added").get("value").getAsInt());
+    }
+
+    @Test
+    void applyRequiresSourcePaths() {
+        BsonCompoundObject source = source();
+        BsonCompoundObject target = source.clone();
+        target.getAsObject("profile").add("age", 31);
+
+        CompoundDiff diff = CompoundDiff.between(source, target);
+
+        assertThrows(IllegalStateException.class, () -> diff.applyTo(new BsonCompoundObject()));
+    }
+}
@@ -0,0 +1,122 @@
+package be.raft.compound;
+
+import fr.atlasworld.common.compound.CompoundObject;
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CompoundPoolTest {
+
+    private static Document nested(BsonCompoundObject object, String key) {
+        return ((BsonCompoundObject) object.getAsObject(key)).document();
+    }
+
+    @Test
+    void releasedContainersAreReused() {
+        CompoundPool pool = new CompoundPool();
+
+        BsonCompoundObject first = pool.acquire();
+        first.add("name", "raft");
+        first.addObject("nested", nested -> nested.add("value", 1));
+        Document document = first.document();
+        Document nested = nested(first, "nested");
+        pool.release(first);
+
+        BsonCompoundObject second = pool.acquire();
+        assertTrue(second.isEmpty());
+        assertSame(document, second.document()); // Nested containers are recycled before their parent.
+
+        second.addObject("other", other -> other.add("value", 2));
+        assertSame(nested, nested(second, "other"));
+        assertEquals(2, second.getAsObject("other").get("value").getAsInt());
+    }
+
+    @Test
+    void releasedCompoundCannotBeWritten() {
+        CompoundPool pool = new CompoundPool();
+        BsonCompoundObject object = pool.acquire();
+        object.addObject("nested", nested -> nested.add("value", 1));
+        CompoundObject nested = object.getAsObject("nested");
+
+        pool.release(object);
+
+        assertThrows(IllegalStateException.class, () -> object.add("name", "raft"));
+        assertThrows(IllegalStateException.class, () -> nested.add("value", 2));
+    }
+
+    @Test
+    void releaseChecksOwnership() {
+        CompoundPool pool = new CompoundPool();
+        BsonCompoundObject object = pool.acquire();
+
+        assertThrows(IllegalArgumentException.class, () -> new CompoundPool().release(object));
+        assertThrows(IllegalArgumentException.class, () -> pool.release(new BsonCompoundObject()));
+
+        pool.release(object);
+        assertThrows(IllegalStateException.class, () -> pool.release(object));
+    }
+
+    @Test
+    void handedOutDocumentsAreNotReused() {
+        CompoundPool pool = new CompoundPool();
+        BsonCompoundObject object = pool.acquire();
+        object.add("name", "raft");
+        Document document = object.getDocument();
+
+        pool.release(object);
+        BsonCompoundObject next = pool.acquire();
+        next.add("name", "other");
+
+        assertNotSame(document, next.document());
+        assertEquals("raft", document.get("name"));
+    }
+
+    @Test
+    void clonedContainersAreNotReused() {
+        CompoundPool pool = new CompoundPool();
+        BsonCompoundObject object = pool.acquire();
+        object.addObject("nested", nested -> nested.add("value", 1));
+        BsonCompoundObject clone = object.clone();
+
+        pool.release(object);
+        BsonCompoundObject next = pool.acquire();
+        next.addObject("nested", nested -> nested.add("value", 2));
+
+        assertEquals(1, clone.getAsObject("nested").get("value").getAsInt());
+    }
+
+    @Test
+    void addedCompoundsAreNotReused() {
+        CompoundPool pool = new CompoundPool();
+        BsonCompoundObject external = new BsonCompoundObject();
+        external.add("value", 1);
+
+        BsonCompoundObject object = pool.acquire();
+        object.add("external", external);
+        pool.release(object);
+
+        BsonCompoundObject next = pool.acquire();
+        next.add("value", 2);
+
+        assertEquals(1, external.get("value").getAsInt());
+    }
+
+    @Test
+    void capacityAndSizeLimits() {
+        CompoundPool empty = new CompoundPool(0, 16);
+        BsonCompoundObject object = empty.acquire();
+        Document document = object.document();
+        empty.release(object);
+
+        assertNotSame(document, empty.acquire().document());
+
+        CompoundPool small = new CompoundPool(4, 1);
+        BsonCompoundObject large = small.acquire();
+        large.add("a", 1).add("b", 2);
+        Document largeDocument = large.document();
+        small.release(large);
+
+        assertNotSame(largeDocument, small.acquire().document());
+    }
+}
@@ -0,0 +1,85 @@
+package be.raft.compound;
+
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CompoundProjectionTest {
+
+    private static byte[] encoded() {
+        BsonCompoundObject object = new BsonCompoundObject();
+        object.add("_id", 1L);
+        object.add("name", "raft");
+        object.addObject("profile", profile -> profile
+                .add("age", 30)
+                .add("city", "Brussels")
+                .addObject("address", address -> address.add("street", "Main").add("zip", "1000")));
+        object.addArray("orders", orders -> orders
+                .addObject(order -> order.add("id", 1).add("total", 10.0))
+                .add(5)
+                .addObject(order -> order.add("id", 2).add("total", 20.0)));
+
+        return BsonCompoundCodec.DEFAULT.encode(object);
+    }
+
+    @Test
+    void decodesTopLevelFields() {
+        BsonCompoundObject object = BsonCompoundCodec.DEFAULT.decode(encoded(), CompoundProjection.of("_id", "name"));
+
+        assertEquals(2, object.size());
+        assertEquals(1L, object.get("_id").getAsLong());
+        assertEquals("raft", object.get("name").getAsString());
+        assertFalse(object.has("profile"));
+    }
+
+    @Test
+    void decodesNestedPaths() {
+        BsonCompoundObject object = BsonCompoundCodec.DEFAULT.decode(encoded(), CompoundProjection.of("profile.address.zip", "profile.age"));
+
+        assertEquals(new Document("profile", new Document("age", 30).append("address", new Document("zip", "1000"))), object.getDocument());
+    }
+
+    @Test
+    void includedPathKeepsSubtree() {
+        BsonCompoundObject object = BsonCompoundCodec.DEFAULT.decode(encoded(), CompoundProjection.of("profile", "profile.age"));
+
+        assertEquals(3, object.getAsObject("profile").size());
+        assertEquals("Main", object.getAsObject("profile").getAsObject("address").get("street").getAsString());
+    }
+
+    @Test
+    void pathsThroughArraysApplyToEveryDocument() {
+        BsonCompoundObject object = BsonCompoundCodec.DEFAULT.decode(encoded(), CompoundProjection.of("orders.total"));
+
+        assertEquals(List.of(new Document("total", 10.0), new Document("total", 20.0)), object.getDocument().get("orders"));
+    }
+
+    @Test
+    void missingFieldsAreAbsent() {
+        BsonCompoundObject object = BsonCompoundCodec.DEFAULT.decode(encoded(), CompoundProjection.of("missing", "name.length"));
+
+        assertTrue(object.isEmpty());
+    }
+
+    @Test
+    void decodesFollowingDocuments() {
+        byte[] first = encoded();
+        byte[] bytes = new byte[first.length * 2];
+        System.arraycopy(first, 0, bytes, 0, first.length);
+        System.arraycopy(first, 0, bytes, first.length, first.length);
+
+        BsonCompoundObject object = BsonCompoundCodec.DEFAULT.decode(bytes, CompoundProjection.of("_id"));
+
+        assertEquals(1, object.size());
+    }
+
+    @Test
+    void rejectsInvalidPaths() {
+        assertThrows(IllegalArgumentException.class, () -> CompoundProjection.of("a..b"));
+        assertThrows(IllegalArgumentException.class, () -> CompoundProjection.of("a."));
+        assertThrows(IllegalArgumentException.class, () -> CompoundProjection.of(List.of()));
+    }
+}